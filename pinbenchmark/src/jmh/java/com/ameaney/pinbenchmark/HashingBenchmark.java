@@ -0,0 +1,65 @@
+package com.ameaney.pinbenchmark;
+
+import com.ameaney.pinhandler.Md5PinHasher;
+import com.ameaney.pinhandler.PinStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Legacy MD5 hashing, hex encoding and digest comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HashingBenchmark
+{
+    private final PinStorage _storage = new PinStorage();
+    private final Md5PinHasher _hasher = new Md5PinHasher();
+
+    private final String _pin = "1234";
+    private final char[] _pinChars = _pin.toCharArray();
+    private final char[] _hex = new char[Md5PinHasher.DIGEST_LENGTH * 2];
+
+    private byte[] _expected;
+    private String _expectedHex;
+
+    @Setup
+    public void setUp()
+    {
+        _expected = _hasher.hash(_pinChars, null, 0);
+        _expectedHex = _storage.MD5Encode(_pin);
+    }
+
+    @Benchmark
+    public String md5EncodeString()
+    {
+        return _storage.MD5Encode(_pin);
+    }
+
+    @Benchmark
+    public char[] md5EncodeChars()
+    {
+        _storage.MD5Encode(_pinChars, _hex);
+        return _hex;
+    }
+
+    @Benchmark
+    public boolean compareHexTokens()
+    {
+        return _expectedHex.equals(_storage.MD5Encode(_pin));
+    }
+
+    @Benchmark
+    public boolean compareDigestBytes()
+    {
+        return _hasher.verify(_pinChars, _expected);
+    }
+}
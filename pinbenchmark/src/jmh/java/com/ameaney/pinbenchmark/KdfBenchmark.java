@@ -0,0 +1,38 @@
+package com.ameaney.pinbenchmark;
+
+import com.ameaney.pinhandler.Pbkdf2PinHasher;
+import com.ameaney.pinhandler.PinHasher;
+import com.ameaney.pinhandler.PinRecord;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key derivation at several cost settings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KdfBenchmark
+{
+    @Param({ "1000", "10000", "50000" })
+    public int cost;
+
+    private final PinHasher _hasher = new Pbkdf2PinHasher();
+
+    private final char[] _pin = "1234".toCharArray();
+    private final byte[] _salt = new byte[PinRecord.SALT_LENGTH];
+
+    @Benchmark
+    public byte[] pbkdf2()
+    {
+        return _hasher.hash(_pin, _salt, cost);
+    }
+}
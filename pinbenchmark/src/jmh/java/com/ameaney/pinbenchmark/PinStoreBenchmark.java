@@ -0,0 +1,84 @@
+package com.ameaney.pinbenchmark;
+
+import com.ameaney.pinhandler.Md5PinHasher;
+import com.ameaney.pinhandler.PinStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-profile store costs as the number of profiles grows. Pins are hashed with MD5 so the
+ * store itself is what's measured; every write includes its fsync.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PinStoreBenchmark
+{
+    @Param({ "10", "100", "1000", "10000" })
+    public int profiles;
+
+    private final char[] _pin = "1234".toCharArray();
+    private final Random _random = new Random(42);
+
+    private File _file;
+    private PinStore _store;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        _file = File.createTempFile("pinstore", ".bin");
+        _file.delete();
+
+        _store = PinStore.open(_file);
+        _store.setHasher(new Md5PinHasher());
+        for (int i = 0; i < profiles; i++)
+        {
+            _store.setPin(profileId(i), _pin);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        _store.close();
+        _file.delete();
+    }
+
+    private String profileId(int index)
+    {
+        return "operator-" + index;
+    }
+
+    @Benchmark
+    public boolean confirmPin()
+    {
+        return _store.confirmPin(profileId(_random.nextInt(profiles)), _pin);
+    }
+
+    @Benchmark
+    public boolean setPin()
+    {
+        return _store.setPin(profileId(_random.nextInt(profiles)), _pin);
+    }
+
+    @Benchmark
+    public PinStore open() throws IOException
+    {
+        PinStore store = PinStore.open(_file);
+        store.close();
+        return store;
+    }
+}
@@ -0,0 +1,51 @@
+package com.ameaney.pinbenchmark;
+
+import com.ameaney.pinhandler.Position;
+import com.ameaney.pinhandler.TapDetector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per move event cost of tap detection. With the gc profiler, TapDetector should report no
+ * allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PositionBenchmark
+{
+    private static final int TOUCH_SLOP = 24;
+
+    private final Position _down = new Position(100, 100);
+    private final TapDetector _detector = new TapDetector(TOUCH_SLOP);
+
+    private float _x = 105;
+    private float _y = 103;
+
+    @Setup
+    public void setUp()
+    {
+        _detector.onDown(100, 100);
+    }
+
+    @Benchmark
+    public double positionDisplacement()
+    {
+        // What PinView did for every move event
+        return _down.getDisplacement(new Position(_x, _y));
+    }
+
+    @Benchmark
+    public boolean tapDetectorMove()
+    {
+        return _detector.onMove(_x, _y);
+    }
+}
@@ -0,0 +1,86 @@
+package com.ameaney.pinbenchmark;
+
+import com.ameaney.pinhandler.InMemoryBackend;
+import com.ameaney.pinhandler.Pbkdf2PinHasher;
+import com.ameaney.pinhandler.PinStorage;
+import com.ameaney.pinhandler.SpeculativePinVerifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Perceived verification latency: the time from the last digit being typed to the answer, with
+ * and without speculation, for different worker pool sizes.
+ *
+ * Before each measurement the first digits are "typed" and the benchmark waits {@code typingGap}
+ * milliseconds, roughly the time between two key presses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SpeculationBenchmark
+{
+    @Param({ "1", "2", "4", "8" })
+    public int threads;
+
+    @Param({ "false", "true" })
+    public boolean speculate;
+
+    @Param({ "150" })
+    public long typingGap;
+
+    @Param({ "50" })
+    public long hashLatency;
+
+    private final char[] _pin = "1234".toCharArray();
+
+    private ExecutorService _executor;
+    private SpeculativePinVerifier _verifier;
+
+    @Setup
+    public void setUp()
+    {
+        PinStorage storage = new PinStorage(new InMemoryBackend());
+        storage.setHasher(new Pbkdf2PinHasher());
+        storage.setTargetLatency(hashLatency);
+        storage.setPin(_pin);
+
+        _executor = Executors.newFixedThreadPool(threads);
+        _verifier = new SpeculativePinVerifier(storage, null, _executor);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        _verifier.cancel();
+        _executor.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void typeAllButLast() throws InterruptedException
+    {
+        if (speculate)
+        {
+            _verifier.onPinChanged(_pin, _pin.length - 1, _pin.length);
+        }
+        Thread.sleep(typingGap);
+    }
+
+    @Benchmark
+    public boolean typeLast()
+    {
+        return _verifier.confirm(_pin);
+    }
+}
@@ -0,0 +1,102 @@
+package com.ameaney.pinbenchmark;
+
+import com.ameaney.pinhandler.AtomicFileBackend;
+import com.ameaney.pinhandler.InMemoryBackend;
+import com.ameaney.pinhandler.Md5PinHasher;
+import com.ameaney.pinhandler.Pbkdf2PinHasher;
+import com.ameaney.pinhandler.PinStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end PinStorage checks against the in-memory and file backends. PBKDF2 runs at the minimum cost so
+ * the storage overhead isn't hidden by the hash.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VerificationBenchmark
+{
+    @Param({ Md5PinHasher.ID, Pbkdf2PinHasher.ID })
+    public String hasher;
+
+    @Param({ "memory", "file" })
+    public String backend;
+
+    private File _file;
+
+    private PinStorage _storage;
+
+    private final String _pin = "1234";
+    private final char[] _pinChars = _pin.toCharArray();
+    private final char[] _wrongPin = "4321".toCharArray();
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        if ("file".equals(backend))
+        {
+            _file = File.createTempFile("pinstorage", ".bin");
+            _file.delete();
+            _storage = new PinStorage(new AtomicFileBackend(_file));
+        }
+        else
+        {
+            _storage = new PinStorage(new InMemoryBackend());
+        }
+        _storage.setHasher(Md5PinHasher.ID.equals(hasher) ? new Md5PinHasher() : new Pbkdf2PinHasher());
+        _storage.setTargetLatency(0);
+        _storage.setPin(_pin);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if (_file != null)
+        {
+            _file.delete();
+        }
+    }
+
+    @Benchmark
+    public boolean setPin()
+    {
+        return _storage.setPin(_pinChars);
+    }
+
+    @Benchmark
+    public boolean hasPin()
+    {
+        return _storage.hasPin();
+    }
+
+    @Benchmark
+    public boolean confirmString()
+    {
+        return _storage.confirmPin(_pin);
+    }
+
+    @Benchmark
+    public boolean confirmChars()
+    {
+        return _storage.confirmPin(_pinChars);
+    }
+
+    @Benchmark
+    public boolean confirmWrongPin()
+    {
+        return _storage.confirmPin(_wrongPin);
+    }
+}
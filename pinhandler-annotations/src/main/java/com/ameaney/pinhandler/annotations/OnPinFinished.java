@@ -0,0 +1,20 @@
+package com.ameaney.pinhandler.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the method a PinView's {@code app:onPinFinished} attribute refers to. The method must take
+ * a single String and must not be private or static.
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.METHOD)
+public @interface OnPinFinished
+{
+    /**
+     * Handler name used in the layout, defaults to the method name
+     */
+    String value() default "";
+}
@@ -0,0 +1,356 @@
+package com.ameaney.pinhandler.compiler;
+
+import com.ameaney.pinhandler.annotations.OnPinFinished;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Generates a direct-call PinFinishedBinder for every class with {@link OnPinFinished} methods.
+ * PinView finds the binder for a class by its name, {@code <class>$$PinFinishedBinder}, so every
+ * module can run the processor on its own classes.
+ *
+ * Invalid handlers fail the build, as does any {@code onPinFinished} attribute in the module's
+ * layouts that doesn't name a handler. The res directories are found next to the generated
+ * sources, or can be given with the {@code pinhandler.resDirs} option.
+ */
+public class OnPinFinishedProcessor extends AbstractProcessor
+{
+    public static final String OPTION_RES_DIRS = "pinhandler.resDirs";
+
+    private static final String PACKAGE = "com.ameaney.pinhandler";
+    private static final String BINDER_SUFFIX = "$$PinFinishedBinder";
+    private static final String ATTRIBUTE = "onPinFinished";
+
+    // Written nowhere; only its path is used to find the module's res directories
+    private static final String PROBE_NAME = "pinhandler-res-probe";
+
+    // Target class -> handler name -> method name, kept across rounds
+    private final Map<TypeElement, Map<String, String>> _handlers = new LinkedHashMap<>();
+    private final Set<TypeElement> _written = new HashSet<>();
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes()
+    {
+        // Every build, not just ones with handlers, so layouts naming a missing handler always fail.
+        // process() never claims the annotations, so other processors still see them.
+        return Collections.singleton("*");
+    }
+
+    @Override
+    public Set<String> getSupportedOptions()
+    {
+        return Collections.singleton(OPTION_RES_DIRS);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion()
+    {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnvironment)
+    {
+        for (Element element : roundEnvironment.getElementsAnnotatedWith(OnPinFinished.class))
+        {
+            collect((ExecutableElement) element);
+        }
+
+        if (roundEnvironment.processingOver())
+        {
+            // Every handler has been seen by now, including ones in generated sources
+            checkLayouts();
+            return false;
+        }
+
+        try
+        {
+            for (Map.Entry<TypeElement, Map<String, String>> entry : _handlers.entrySet())
+            {
+                if (!_written.contains(entry.getKey()))
+                {
+                    writeBinder(entry.getKey(), entry.getValue());
+                    _written.add(entry.getKey());
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            error(null, "Unable to write pin binders: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private void collect(ExecutableElement method)
+    {
+        Set<Modifier> modifiers = method.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC))
+        {
+            error(method, "@OnPinFinished methods must not be private or static");
+            return;
+        }
+
+        List<? extends VariableElement> parameters = method.getParameters();
+        if (parameters.size() != 1 || !parameters.get(0).asType().toString().equals(String.class.getName()))
+        {
+            error(method, "@OnPinFinished methods must take a single String");
+            return;
+        }
+
+        TypeElement type = (TypeElement) method.getEnclosingElement();
+        if (type.getModifiers().contains(Modifier.PRIVATE)
+                || (type.getNestingKind() != NestingKind.TOP_LEVEL && !type.getModifiers().contains(Modifier.STATIC)))
+        {
+            error(type, "Classes with @OnPinFinished methods must be top level or static, and not private");
+            return;
+        }
+
+        String name = method.getAnnotation(OnPinFinished.class).value();
+        if (name.isEmpty())
+        {
+            name = method.getSimpleName().toString();
+        }
+
+        Map<String, String> handlers = _handlers.get(type);
+        if (handlers == null)
+        {
+            handlers = new LinkedHashMap<>();
+            _handlers.put(type, handlers);
+        }
+
+        if (handlers.containsKey(name))
+        {
+            error(method, "Duplicate @OnPinFinished handler \"" + name + "\" in " + type.getQualifiedName());
+            return;
+        }
+        handlers.put(name, method.getSimpleName().toString());
+    }
+
+    private void checkLayouts()
+    {
+        List<File> resDirs = getResDirs();
+        if (resDirs.isEmpty())
+        {
+            warning("No res directories found, so onPinFinished attributes in layouts aren't checked. Set the "
+                    + OPTION_RES_DIRS + " annotation processor option to check them.");
+            return;
+        }
+
+        DocumentBuilder builder;
+        try
+        {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            builder = factory.newDocumentBuilder();
+        }
+        catch (ParserConfigurationException e)
+        {
+            error(null, "Unable to check layouts: " + e.getMessage());
+            return;
+        }
+
+        for (File resDir : resDirs)
+        {
+            File[] directories = resDir.listFiles();
+            if (directories == null)
+            {
+                continue;
+            }
+
+            for (File directory : directories)
+            {
+                File[] layouts = directory.getName().startsWith("layout") ? directory.listFiles() : null;
+                for (int i = 0; layouts != null && i < layouts.length; i++)
+                {
+                    if (layouts[i].getName().endsWith(".xml"))
+                    {
+                        checkLayout(builder, layouts[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    private void checkLayout(DocumentBuilder builder, File layout)
+    {
+        Document document;
+        try
+        {
+            document = builder.parse(layout);
+        }
+        catch (SAXException | IOException e)
+        {
+            error(null, "Unable to read " + layout + ": " + e.getMessage());
+            return;
+        }
+
+        NodeList elements = document.getElementsByTagName("*");
+        for (int i = 0; i < elements.getLength(); i++)
+        {
+            NamedNodeMap attributes = elements.item(i).getAttributes();
+            for (int j = 0; j < attributes.getLength(); j++)
+            {
+                Attr attribute = (Attr) attributes.item(j);
+                String name = attribute.getLocalName() != null ? attribute.getLocalName() : attribute.getName();
+                if (ATTRIBUTE.equals(name) && !hasHandler(attribute.getValue()))
+                {
+                    error(null, layout.getName() + ": no @OnPinFinished handler named \"" + attribute.getValue() + "\"");
+                }
+            }
+        }
+    }
+
+    private List<File> getResDirs()
+    {
+        List<File> resDirs = new ArrayList<>();
+
+        String option = processingEnv.getOptions().get(OPTION_RES_DIRS);
+        if (option != null && !option.isEmpty())
+        {
+            for (String path : option.split(","))
+            {
+                resDirs.add(new File(path.trim()));
+            }
+            return resDirs;
+        }
+
+        // Generated sources go under <module>/build, so look for the module's src/<set>/res above them
+        File directory;
+        try
+        {
+            URI probe = processingEnv.getFiler().createResource(StandardLocation.SOURCE_OUTPUT, "", PROBE_NAME).toUri();
+            directory = new File(probe).getParentFile();
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            return resDirs;
+        }
+
+        for (; directory != null; directory = directory.getParentFile())
+        {
+            File[] sourceSets = new File(directory, "src").listFiles();
+            for (int i = 0; sourceSets != null && i < sourceSets.length; i++)
+            {
+                File resDir = new File(sourceSets[i], "res");
+                if (resDir.isDirectory())
+                {
+                    resDirs.add(resDir);
+                }
+            }
+
+            if (!resDirs.isEmpty())
+            {
+                break;
+            }
+        }
+        return resDirs;
+    }
+
+    private boolean hasHandler(String name)
+    {
+        for (Map<String, String> handlers : _handlers.values())
+        {
+            if (handlers.containsKey(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeBinder(TypeElement type, Map<String, String> handlers) throws IOException
+    {
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String binderName = getBinderName(type);
+        String targetName = type.getQualifiedName().toString();
+
+        Writer writer = processingEnv.getFiler().createSourceFile(qualify(packageName, binderName), type).openWriter();
+        try
+        {
+            if (!packageName.isEmpty())
+            {
+                writer.write("package " + packageName + ";\n\n");
+            }
+            writer.write("public final class " + binderName + " implements " + PACKAGE + ".PinFinishedBinder<" + targetName + ">\n");
+            writer.write("{\n");
+            writer.write("    @Override\n");
+            writer.write("    public boolean pinEntered(" + targetName + " target, String handler, String pin)\n");
+            writer.write("    {\n");
+            // Plain if/else rather than a String switch, so the output compiles at any source level
+            for (Map.Entry<String, String> handler : handlers.entrySet())
+            {
+                writer.write("        if (\"" + handler.getKey() + "\".equals(handler))\n");
+                writer.write("        {\n");
+                writer.write("            target." + handler.getValue() + "(pin);\n");
+                writer.write("            return true;\n");
+                writer.write("        }\n");
+            }
+            writer.write("        return false;\n");
+            writer.write("    }\n");
+            writer.write("}\n");
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private String getBinderName(TypeElement type)
+    {
+        // Outer.Inner becomes Outer$Inner$$PinFinishedBinder
+        String name = type.getSimpleName().toString();
+        for (Element enclosing = type.getEnclosingElement(); enclosing.getKind() != ElementKind.PACKAGE;
+             enclosing = enclosing.getEnclosingElement())
+        {
+            name = enclosing.getSimpleName() + "$" + name;
+        }
+        return name + BINDER_SUFFIX;
+    }
+
+    private static String qualify(String packageName, String name)
+    {
+        return packageName.isEmpty() ? name : packageName + "." + name;
+    }
+
+    private void warning(String message)
+    {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message);
+    }
+
+    private void error(Element element, String message)
+    {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
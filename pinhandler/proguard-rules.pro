@@ -9,6 +9,15 @@
 
 # Add any project specific keep options here:
 
+# PinView loads the binder generated by pinhandler-compiler for a class as <class>$$PinFinishedBinder,
+# so classes with @OnPinFinished handlers and their binders must keep their names
+-keep class **$$PinFinishedBinder {
+    <init>();
+}
+-keepclasseswithmembernames class * {
+    @com.ameaney.pinhandler.annotations.OnPinFinished <methods>;
+}
+
 # If your project uses WebView with JS, uncomment the following
 # and specify the fully qualified class name to the JavaScript interface
 # class:
@@ -0,0 +1,66 @@
+package com.ameaney.pinhandler;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * Measure, layout and draw time per frame while scrolling through 4, 64 and 256 digits, in both
+ * render modes. Results are logged under the PinViewFrameBenchmark tag.
+ */
+public class PinViewFrameBenchmark extends InstrumentationTestCase
+{
+    private static final String TAG = "PinViewFrameBenchmark";
+
+    private static final int[] DIGIT_COUNTS = { 4, 64, 256 };
+    private static final int WARMUP_FRAMES = 20;
+    private static final int FRAMES = 200;
+
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 400;
+
+    @UiThreadTest
+    public void testFrameTimes()
+    {
+        Context context = getInstrumentation().getTargetContext();
+        Canvas canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+
+        for (int digits : DIGIT_COUNTS)
+        {
+            logFrameTime("views", digits, new PinView(context, digits, PinView.RENDER_MODE_VIEWS), canvas);
+            logFrameTime("canvas", digits, new PinView(context, digits, PinView.RENDER_MODE_CANVAS), canvas);
+        }
+    }
+
+    private void logFrameTime(String mode, int digits, PinView view, Canvas canvas)
+    {
+        int widthSpec = View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY);
+        int heightSpec = View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.AT_MOST);
+
+        long total = 0;
+        for (int frame = 0; frame < WARMUP_FRAMES + FRAMES; frame++)
+        {
+            long start = System.nanoTime();
+
+            view.requestLayout();
+            view.measure(widthSpec, heightSpec);
+            view.layout(0, 0, WIDTH, view.getMeasuredHeight());
+
+            // Sweep across the digits, wrapping back to the start
+            int maxScroll = Math.max(1, view.getChildAt(0).getWidth() - WIDTH);
+            view.scrollTo(frame * WIDTH / 4 % maxScroll, 0);
+            view.draw(canvas);
+
+            if (frame >= WARMUP_FRAMES)
+            {
+                total += System.nanoTime() - start;
+            }
+        }
+
+        Log.i(TAG, String.format("%s, %d digits: %.3f ms/frame", mode, digits, total / (FRAMES * 1000000.0)));
+    }
+}
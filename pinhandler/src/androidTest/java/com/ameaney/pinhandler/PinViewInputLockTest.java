@@ -0,0 +1,76 @@
+package com.ameaney.pinhandler;
+
+import android.test.InstrumentationTestCase;
+import android.test.UiThreadTest;
+import android.view.ViewGroup;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.widget.EditText;
+
+/**
+ * Edits from the keyboard while a pin is being verified must leave the pin, and the finished
+ * callbacks, alone.
+ */
+public class PinViewInputLockTest extends InstrumentationTestCase
+{
+    private PinView _view;
+    private int _finishedCount;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        _view = new PinView(getInstrumentation().getTargetContext(), 4, PinView.RENDER_MODE_VIEWS);
+        _view.setOnPinFinishedListener(new OnPinFinishedListener()
+        {
+            @Override
+            public void pinEntered(String pin)
+            {
+                _finishedCount++;
+            }
+        });
+    }
+
+    @UiThreadTest
+    public void testBackspaceWhileLockedDoesntDispatchAgain()
+    {
+        // Creates the input field, as attaching to a window would
+        _view.onAttachedToWindow();
+
+        for (char digit : "1234".toCharArray())
+        {
+            _view.append(digit);
+        }
+        assertEquals(1, _finishedCount);
+
+        _view.setInputLocked(true);
+        InputConnection connection = findInputField(_view).onCreateInputConnection(new EditorInfo());
+        connection.deleteSurroundingText(1, 0);
+
+        assertEquals("1234", _view.getPin());
+        assertEquals(1, _finishedCount);
+
+        _view.onDetachedFromWindow();
+    }
+
+    private static EditText findInputField(ViewGroup group)
+    {
+        for (int i = 0; i < group.getChildCount(); i++)
+        {
+            if (group.getChildAt(i) instanceof EditText)
+            {
+                return (EditText) group.getChildAt(i);
+            }
+            if (group.getChildAt(i) instanceof ViewGroup)
+            {
+                EditText field = findInputField((ViewGroup) group.getChildAt(i));
+                if (field != null)
+                {
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,254 @@
+package com.ameaney.pinhandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps values in a small binary file that is replaced as a whole on every write.
+ *
+ * Each batch is written to a temporary file, synced and renamed over the old one, so a crash
+ * leaves either the old values or the new ones. The values are read once and then served from
+ * memory.
+ *
+ * A file that exists but can't be read is never written over: reads find nothing and writes fail
+ * until it can be read again, so the values in it aren't lost to the next write.
+ */
+public class AtomicFileBackend implements PinStorageBackend
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private final File _file;
+    private final File _tempFile;
+    private final CopyOnWriteArrayList<Listener> _listeners = new CopyOnWriteArrayList<Listener>();
+
+    // Null until loaded
+    private volatile Map<String, String> _values;
+
+    // android.system.Os, looked up on first use; null when it isn't there
+    private static boolean _osLoaded;
+    private static Method _osOpen;
+    private static Method _osFsync;
+    private static Method _osClose;
+    private static int _readOnly;
+
+    public AtomicFileBackend(File file)
+    {
+        _file = file;
+        _tempFile = new File(file.getPath() + ".tmp");
+    }
+
+    @Override
+    public String get(String key)
+    {
+        Map<String, String> values = _values;
+        if (values == null)
+        {
+            values = load();
+        }
+        return values != null ? values.get(key) : null;
+    }
+
+    @Override
+    public boolean write(Map<String, String> changes)
+    {
+        synchronized (this)
+        {
+            Map<String, String> current = _values != null ? _values : load();
+            if (current == null)
+            {
+                // Writing now would replace everything that couldn't be read with just these changes
+                return false;
+            }
+
+            Map<String, String> values = new HashMap<String, String>(current);
+            for (Map.Entry<String, String> change : changes.entrySet())
+            {
+                if (change.getValue() == null)
+                {
+                    values.remove(change.getKey());
+                }
+                else
+                {
+                    values.put(change.getKey(), change.getValue());
+                }
+            }
+
+            try
+            {
+                save(values);
+            }
+            catch (IOException e)
+            {
+                _tempFile.delete();
+                return false;
+            }
+            _values = Collections.unmodifiableMap(values);
+        }
+
+        for (String key : changes.keySet())
+        {
+            for (Listener listener : _listeners)
+            {
+                listener.onChanged(key);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void addListener(Listener listener)
+    {
+        _listeners.add(listener);
+    }
+
+    /**
+     * @return the values, or null if the file is there but can't be read
+     */
+    private synchronized Map<String, String> load()
+    {
+        if (_values != null)
+        {
+            return _values;
+        }
+
+        // Missing, or empty (e.g. created by the caller): nothing has been written yet
+        if (_file.length() == 0)
+        {
+            _values = Collections.emptyMap();
+            return _values;
+        }
+
+        Map<String, String> values = new HashMap<String, String>();
+        try
+        {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+            try
+            {
+                if (input.readInt() != FORMAT_VERSION)
+                {
+                    return null;
+                }
+
+                int count = input.readInt();
+                for (int i = 0; i < count; i++)
+                {
+                    values.put(input.readUTF(), input.readUTF());
+                }
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        catch (FileNotFoundException e)
+        {
+            // Nothing written yet
+        }
+        catch (IOException e)
+        {
+            // Only a whole file is ever renamed into place, so this is damage from elsewhere, or a
+            // read that failed for now. Try again next time rather than treating it as empty.
+            return null;
+        }
+
+        _values = Collections.unmodifiableMap(values);
+        return _values;
+    }
+
+    private void save(Map<String, String> values) throws IOException
+    {
+        FileOutputStream stream = new FileOutputStream(_tempFile);
+        try
+        {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(values.size());
+            for (Map.Entry<String, String> value : values.entrySet())
+            {
+                output.writeUTF(value.getKey());
+                output.writeUTF(value.getValue());
+            }
+            output.flush();
+            stream.getFD().sync();
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        if (!_tempFile.renameTo(_file))
+        {
+            throw new IOException("Unable to replace " + _file);
+        }
+
+        // The rename is only durable once the directory entry is
+        syncDirectory(_file.getAbsoluteFile().getParentFile());
+    }
+
+    private static void syncDirectory(File directory)
+    {
+        // Directories can only be synced through android.system.Os (API 21+). It's looked up by name
+        // so this still builds against the API 16 stubs the benchmarks use.
+        if (directory == null || !loadOs())
+        {
+            return;
+        }
+
+        try
+        {
+            Object descriptor = _osOpen.invoke(null, directory.getPath(), _readOnly, 0);
+            try
+            {
+                _osFsync.invoke(null, descriptor);
+            }
+            finally
+            {
+                _osClose.invoke(null, descriptor);
+            }
+        }
+        catch (IllegalAccessException e)
+        {
+            // The file itself is synced and in place; at worst a crash brings back the old values
+        }
+        catch (InvocationTargetException e)
+        {
+            // As above
+        }
+    }
+
+    private static synchronized boolean loadOs()
+    {
+        if (!_osLoaded)
+        {
+            _osLoaded = true;
+            try
+            {
+                Class<?> os = Class.forName("android.system.Os");
+                _osOpen = os.getMethod("open", String.class, int.class, int.class);
+                _osFsync = os.getMethod("fsync", FileDescriptor.class);
+                _osClose = os.getMethod("close", FileDescriptor.class);
+                _readOnly = Class.forName("android.system.OsConstants").getField("O_RDONLY").getInt(null);
+            }
+            catch (Exception e)
+            {
+                // Older Android, or not Android at all
+                _osOpen = null;
+            }
+        }
+        return _osOpen != null;
+    }
+}
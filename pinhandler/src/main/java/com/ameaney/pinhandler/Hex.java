@@ -0,0 +1,50 @@
+package com.ameaney.pinhandler;
+
+class Hex
+{
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    public static String encode(byte[] bytes)
+    {
+        char[] chars = new char[bytes.length * 2];
+        encode(bytes, bytes.length, chars);
+        return new String(chars);
+    }
+
+    /**
+     * Writes the first {@code length} bytes as hex into {@code out}, which must hold at least
+     * {@code length * 2} chars.
+     */
+    public static void encode(byte[] bytes, int length, char[] out)
+    {
+        for (int i = 0; i < length; i++)
+        {
+            out[i * 2] = DIGITS[(bytes[i] >> 4) & 0xF];
+            out[i * 2 + 1] = DIGITS[bytes[i] & 0xF];
+        }
+    }
+
+    /**
+     * @return the decoded bytes, or null if the string isn't valid hex
+     */
+    public static byte[] decode(String hex)
+    {
+        if (hex.length() % 2 != 0)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0)
+            {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
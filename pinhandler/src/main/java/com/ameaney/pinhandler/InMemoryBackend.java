@@ -0,0 +1,66 @@
+package com.ameaney.pinhandler;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps values in memory only, for tests and benchmarks.
+ *
+ * Reads never lock: writes copy the map and swap the new one in.
+ */
+public class InMemoryBackend implements PinStorageBackend
+{
+    private final AtomicReference<Map<String, String>> _values =
+            new AtomicReference<Map<String, String>>(Collections.<String, String>emptyMap());
+    private final CopyOnWriteArrayList<Listener> _listeners = new CopyOnWriteArrayList<Listener>();
+
+    @Override
+    public String get(String key)
+    {
+        return _values.get().get(key);
+    }
+
+    @Override
+    public boolean write(Map<String, String> changes)
+    {
+        while (true)
+        {
+            Map<String, String> current = _values.get();
+            Map<String, String> values = new HashMap<String, String>(current);
+            for (Map.Entry<String, String> change : changes.entrySet())
+            {
+                if (change.getValue() == null)
+                {
+                    values.remove(change.getKey());
+                }
+                else
+                {
+                    values.put(change.getKey(), change.getValue());
+                }
+            }
+
+            if (_values.compareAndSet(current, values))
+            {
+                break;
+            }
+        }
+
+        for (String key : changes.keySet())
+        {
+            for (Listener listener : _listeners)
+            {
+                listener.onChanged(key);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void addListener(Listener listener)
+    {
+        _listeners.add(listener);
+    }
+}
@@ -0,0 +1,147 @@
+package com.ameaney.pinhandler;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Unsalted MD5, as used by earlier versions of PinStorage. Only kept to verify old tokens; the salt
+ * and cost are ignored.
+ *
+ * Each thread reuses one digest and its scratch buffers, so {@link #verify} and
+ * {@link #encodeHex} don't allocate. The encoded pin is wiped from the scratch buffer after use.
+ */
+public class Md5PinHasher implements PinHasher
+{
+    public static final String ID = "md5";
+    public static final int DIGEST_LENGTH = 16;
+
+    private static final ThreadLocal<Scratch> _scratch = new ThreadLocal<Scratch>()
+    {
+        @Override
+        protected Scratch initialValue()
+        {
+            return new Scratch();
+        }
+    };
+
+    @Override
+    public String getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public byte[] hash(char[] pin, byte[] salt, int cost)
+    {
+        byte[] hash = new byte[DIGEST_LENGTH];
+        digest(pin, hash);
+        return hash;
+    }
+
+    public boolean verify(char[] pin, byte[] expected)
+    {
+        Scratch scratch = _scratch.get();
+        digest(pin, scratch.output);
+        return MessageDigest.isEqual(scratch.output, expected);
+    }
+
+    /**
+     * Writes the hash of the pin as lowercase hex into {@code out}, which must hold at least
+     * {@code DIGEST_LENGTH * 2} chars.
+     */
+    public void encodeHex(char[] pin, char[] out)
+    {
+        Scratch scratch = _scratch.get();
+        digest(pin, scratch.output);
+        Hex.encode(scratch.output, DIGEST_LENGTH, out);
+    }
+
+    private void digest(char[] pin, byte[] out)
+    {
+        Scratch scratch = _scratch.get();
+        int length = scratch.encode(pin);
+        try
+        {
+            scratch.digest.update(scratch.input, 0, length);
+            scratch.digest.digest(out, 0, DIGEST_LENGTH);
+        }
+        catch (DigestException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            Arrays.fill(scratch.input, 0, length, (byte) 0);
+        }
+    }
+
+    private static class Scratch
+    {
+        public final MessageDigest digest;
+        public final byte[] output = new byte[DIGEST_LENGTH];
+        public byte[] input = new byte[32];
+
+        public Scratch()
+        {
+            try
+            {
+                digest = MessageDigest.getInstance("MD5");
+            }
+            catch (NoSuchAlgorithmException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * UTF-8 encodes the pin into {@code input}, the same bytes String.getBytes() gives on
+         * Android, without going through a String.
+         *
+         * @return the number of bytes written
+         */
+        public int encode(char[] pin)
+        {
+            if (input.length < pin.length * 3)
+            {
+                input = new byte[pin.length * 3];
+            }
+
+            int length = 0;
+            for (int i = 0; i < pin.length; i++)
+            {
+                char c = pin[i];
+                if (c < 0x80)
+                {
+                    input[length++] = (byte) c;
+                }
+                else if (c < 0x800)
+                {
+                    input[length++] = (byte) (0xC0 | (c >> 6));
+                    input[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+                else if (Character.isHighSurrogate(c) && i + 1 < pin.length && Character.isLowSurrogate(pin[i + 1]))
+                {
+                    int codePoint = Character.toCodePoint(c, pin[++i]);
+                    input[length++] = (byte) (0xF0 | (codePoint >> 18));
+                    input[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    input[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    input[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                }
+                else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)
+                {
+                    // Unpaired surrogates are replaced, as String.getBytes() does
+                    input[length++] = '?';
+                }
+                else
+                {
+                    input[length++] = (byte) (0xE0 | (c >> 12));
+                    input[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    input[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return length;
+        }
+    }
+}
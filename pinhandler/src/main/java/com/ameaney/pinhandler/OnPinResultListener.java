@@ -0,0 +1,6 @@
+package com.ameaney.pinhandler;
+
+public interface OnPinResultListener
+{
+    void onResult(boolean result);
+}
@@ -0,0 +1,58 @@
+package com.ameaney.pinhandler;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2 with HMAC-SHA1, where the cost is the iteration count.
+ *
+ * Keys are one SHA-1 block (160 bits) long: every extra block reruns all the iterations, which
+ * doubles the work here but not for an attacker, who only needs the first. Records made with the
+ * longer keys of earlier versions are checked at their own length.
+ */
+public class Pbkdf2PinHasher implements PinHasher
+{
+    public static final String ID = "pbkdf2";
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    public static final int KEY_LENGTH = 160;
+
+    @Override
+    public String getId()
+    {
+        return ID;
+    }
+
+    @Override
+    public byte[] hash(char[] pin, byte[] salt, int cost)
+    {
+        return hash(pin, salt, cost, KEY_LENGTH);
+    }
+
+    /**
+     * @param keyLength in bits
+     */
+    public byte[] hash(char[] pin, byte[] salt, int cost, int keyLength)
+    {
+        PBEKeySpec spec = new PBEKeySpec(pin, salt, cost, keyLength);
+        try
+        {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (InvalidKeySpecException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        finally
+        {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.ameaney.pinhandler;
+
+import android.content.res.Resources;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
+import android.graphics.drawable.StateListDrawable;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of digit background drawables.
+ *
+ * Drawables are keyed on the colours and insets that make them up, and every caller gets a new
+ * drawable backed by the same {@link Drawable.ConstantState}. Call {@link Drawable#mutate()}
+ * before changing a drawable returned from here.
+ */
+public class PinDrawableCache
+{
+    private static final int MAX_SIZE = 16;
+
+    private static final LruCache<Key, Drawable.ConstantState> _cache = new LruCache<Key, Drawable.ConstantState>(MAX_SIZE);
+
+    private PinDrawableCache()
+    {
+    }
+
+    public static Drawable getDrawable(Resources resources, int borderColor, int backgroundColor,
+                                       int accentColor, int accentHeight, int inset)
+    {
+        Key key = new Key(borderColor, backgroundColor, accentColor, accentHeight, inset);
+
+        Drawable.ConstantState state = _cache.get(key);
+        if (state == null)
+        {
+            state = createDrawable(borderColor, backgroundColor, accentColor, accentHeight, inset).getConstantState();
+            _cache.put(key, state);
+        }
+
+        return state.newDrawable(resources);
+    }
+
+    public static int hitCount()
+    {
+        return _cache.hitCount();
+    }
+
+    public static int missCount()
+    {
+        return _cache.missCount();
+    }
+
+    public static void clear()
+    {
+        _cache.evictAll();
+    }
+
+    private static Drawable createDrawable(int borderColor, int backgroundColor, int accentColor,
+                                           int accentHeight, int inset)
+    {
+        ColorDrawable box = new ColorDrawable(borderColor);
+        ColorDrawable background = new ColorDrawable(backgroundColor);
+        ColorDrawable accent = new ColorDrawable(accentColor);
+
+        LayerDrawable selectedBackground = new LayerDrawable(new Drawable[] { box, accent, background });
+        selectedBackground.setLayerInset(1, inset, inset, inset, inset);
+        selectedBackground.setLayerInset(2, inset, inset, inset, inset + accentHeight);
+
+        LayerDrawable defaultBackground = new LayerDrawable(new Drawable[] { box, background });
+        defaultBackground.setLayerInset(1, inset, inset, inset, inset);
+
+        StateListDrawable stateListDrawable = new StateListDrawable();
+        stateListDrawable.addState(new int[] { android.R.attr.state_selected }, selectedBackground);
+        stateListDrawable.addState(new int[] {}, defaultBackground);
+
+        return stateListDrawable;
+    }
+
+    private static class Key
+    {
+        private final int _borderColor;
+        private final int _backgroundColor;
+        private final int _accentColor;
+        private final int _accentHeight;
+        private final int _inset;
+
+        public Key(int borderColor, int backgroundColor, int accentColor, int accentHeight, int inset)
+        {
+            _borderColor = borderColor;
+            _backgroundColor = backgroundColor;
+            _accentColor = accentColor;
+            _accentHeight = accentHeight;
+            _inset = inset;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return _borderColor == other._borderColor
+                    && _backgroundColor == other._backgroundColor
+                    && _accentColor == other._accentColor
+                    && _accentHeight == other._accentHeight
+                    && _inset == other._inset;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = _borderColor;
+            result = 31 * result + _backgroundColor;
+            result = 31 * result + _accentColor;
+            result = 31 * result + _accentHeight;
+            result = 31 * result + _inset;
+            return result;
+        }
+    }
+}
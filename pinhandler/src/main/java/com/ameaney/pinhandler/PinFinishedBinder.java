@@ -0,0 +1,12 @@
+package com.ameaney.pinhandler;
+
+/**
+ * Calls {@code @OnPinFinished} handlers directly. Implementations are generated at compile time.
+ */
+public interface PinFinishedBinder<T>
+{
+    /**
+     * @return false if the target has no handler with that name
+     */
+    boolean pinEntered(T target, String handler, String pin);
+}
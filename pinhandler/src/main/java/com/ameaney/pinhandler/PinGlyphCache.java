@@ -0,0 +1,79 @@
+package com.ameaney.pinhandler;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.LruCache;
+
+/**
+ * Process-wide cache of the glyphs a PinView draws: the digits 0-9 and the mask.
+ *
+ * Glyphs are keyed on text size and colour, and measured once when first asked for, so digits are
+ * drawn straight onto the canvas with no text layout per view or per keystroke. The returned
+ * {@link Glyphs} are shared, so only draw with them on the main thread.
+ */
+public class PinGlyphCache
+{
+    /** Index of the mask glyph; the digits are 0-9. */
+    public static final int MASK = 10;
+
+    private static final char[] GLYPHS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '•' };
+
+    private static final int MAX_SIZE = 16;
+
+    private static final LruCache<Long, Glyphs> _cache = new LruCache<Long, Glyphs>(MAX_SIZE);
+
+    private PinGlyphCache()
+    {
+    }
+
+    public static Glyphs getGlyphs(int textSize, int color)
+    {
+        Long key = ((long) textSize << 32) | (color & 0xFFFFFFFFL);
+
+        Glyphs glyphs = _cache.get(key);
+        if (glyphs == null)
+        {
+            glyphs = new Glyphs(textSize, color);
+            _cache.put(key, glyphs);
+        }
+        return glyphs;
+    }
+
+    /**
+     * @return the glyph for a digit character, or {@link #MASK} for anything else
+     */
+    public static int getGlyph(char digit)
+    {
+        return digit >= '0' && digit <= '9' ? digit - '0' : MASK;
+    }
+
+    public static void clear()
+    {
+        _cache.evictAll();
+    }
+
+    public static class Glyphs
+    {
+        private final Paint _paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+        // From the vertical centre of a box to the baseline that centres the glyphs in it
+        private final float _baselineOffset;
+
+        private Glyphs(int textSize, int color)
+        {
+            _paint.setColor(color);
+            _paint.setTextSize(textSize);
+            _paint.setTextAlign(Paint.Align.CENTER);
+
+            _baselineOffset = -(_paint.ascent() + _paint.descent()) / 2;
+        }
+
+        /**
+         * Draws a glyph centred on the given point.
+         */
+        public void draw(Canvas canvas, int glyph, float centerX, float centerY)
+        {
+            canvas.drawText(GLYPHS, glyph, 1, centerX, centerY + _baselineOffset, _paint);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ameaney.pinhandler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Picks the cost for a hasher that makes one hash take roughly a target time on this device.
+ */
+public class PinHashCalibrator
+{
+    public static final int MIN_COST = 1000;
+    public static final int MAX_COST = 1000000;
+
+    private static final int PROBE_COST = 2000;
+    private static final int PROBE_RUNS = 3;
+
+    private static final char[] PROBE_PIN = { '0', '0', '0', '0' };
+    private static final byte[] PROBE_SALT = new byte[PinRecord.SALT_LENGTH];
+
+    // Calibrated costs by hasher class and target, so each is measured once per process
+    private static final Map<String, Integer> _costs = new HashMap<String, Integer>();
+
+    /**
+     * Returns the cost for the hasher's class and the target, calibrating it the first time it's
+     * asked for in this process.
+     */
+    public static int getCost(PinHasher hasher, long targetMillis)
+    {
+        String key = hasher.getClass().getName() + '/' + targetMillis;
+        synchronized (_costs)
+        {
+            Integer cost = _costs.get(key);
+            if (cost == null)
+            {
+                cost = calibrate(hasher, targetMillis);
+                _costs.put(key, cost);
+            }
+            return cost;
+        }
+    }
+
+    public static int calibrate(PinHasher hasher, long targetMillis)
+    {
+        // Warm up, then keep the fastest run to keep scheduling noise out of the estimate
+        hasher.hash(PROBE_PIN, PROBE_SALT, PROBE_COST);
+
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < PROBE_RUNS; i++)
+        {
+            long start = System.nanoTime();
+            hasher.hash(PROBE_PIN, PROBE_SALT, PROBE_COST);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        long cost = PROBE_COST * (targetMillis * 1000000L) / Math.max(fastest, 1);
+        return (int) Math.max(MIN_COST, Math.min(MAX_COST, cost));
+    }
+}
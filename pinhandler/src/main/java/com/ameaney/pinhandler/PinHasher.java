@@ -0,0 +1,17 @@
+package com.ameaney.pinhandler;
+
+/**
+ * Turns a pin into the hash that gets stored.
+ *
+ * The cost is hasher specific (an iteration count for PBKDF2) and is stored alongside the hash so
+ * it can be raised later without breaking existing pins.
+ */
+public interface PinHasher
+{
+    /**
+     * @return a short, stable name written into stored records
+     */
+    String getId();
+
+    byte[] hash(char[] pin, byte[] salt, int cost);
+}
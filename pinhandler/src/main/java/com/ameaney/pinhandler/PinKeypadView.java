@@ -0,0 +1,467 @@
+package com.ameaney.pinhandler;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Bundle;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.HapticFeedbackConstants;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewParent;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityManager;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.view.accessibility.AccessibilityNodeProvider;
+
+/**
+ * A numeric keypad drawn onto a single view that types straight into a {@link PinView}, with no
+ * EditText or soft keyboard in between.
+ *
+ * Keys are laid out 1-9, then clear, 0 and delete. Pair it with {@code softInputEnabled="false"}
+ * on the PinView to keep the system keyboard from showing at all.
+ *
+ * Each key is exposed to accessibility services as a virtual view, so it can be found by touch
+ * exploration and pressed with TalkBack or switch access.
+ */
+public class PinKeypadView extends View
+{
+    public static class Defaults
+    {
+        public static final int KEY_SIZE = 64;
+        public static final int KEY_TEXT_SIZE = 24;
+    }
+
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 4;
+
+    private static final int KEY_CLEAR = 9;
+    private static final int KEY_DELETE = 11;
+
+    private static final String KEY_CLASS_NAME = "android.widget.Button";
+
+    // Labels by key index, drawn one char at a time
+    private static final char[] LABELS = { '1', '2', '3', '4', '5', '6', '7', '8', '9', 'C', '0', '←' };
+
+    private final Paint _textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint _pressedPaint = new Paint();
+
+    private int _defaultKeySize;
+    private int _pinViewId = NO_ID;
+    private PinView _pinView;
+
+    private int _pressedKey = -1;
+
+    // Accessibility state: the key under a touch-exploring finger, and the one with accessibility focus
+    private int _hoveredKey = -1;
+    private int _accessibilityFocusedKey = -1;
+    private KeyNodeProvider _nodeProvider;
+
+    public PinKeypadView(Context context)
+    {
+        this(context, null);
+    }
+
+    public PinKeypadView(Context context, AttributeSet attributeSet)
+    {
+        this(context, attributeSet, 0);
+    }
+
+    public PinKeypadView(Context context, AttributeSet attributeSet, int defStyle)
+    {
+        super(context, attributeSet, defStyle);
+
+        Resources resources = getResources();
+        _defaultKeySize = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Defaults.KEY_SIZE, resources.getDisplayMetrics());
+
+        // Colours default to the PinView's, text to textColorPrimary and pressed keys to colorAccent
+        PinStyle style = PinStyle.obtain(context, null);
+
+        TypedArray array = context.obtainStyledAttributes(attributeSet, R.styleable.PinKeypadView);
+        _pinViewId = array.getResourceId(R.styleable.PinKeypadView_pinView, NO_ID);
+        _textPaint.setColor(array.getColor(R.styleable.PinKeypadView_keyTextColor, style.getDigitTextColor()));
+        _textPaint.setTextSize(array.getDimensionPixelSize(R.styleable.PinKeypadView_keyTextSize,
+                (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, Defaults.KEY_TEXT_SIZE, resources.getDisplayMetrics())));
+        _pressedPaint.setColor(array.getColor(R.styleable.PinKeypadView_keyPressedColor, style.getDigitAccentColor()));
+        array.recycle();
+
+        _textPaint.setTextAlign(Paint.Align.CENTER);
+        _pressedPaint.setStyle(Paint.Style.FILL);
+
+        setHapticFeedbackEnabled(true);
+    }
+
+    public void setPinView(PinView pinView)
+    {
+        _pinView = pinView;
+    }
+
+    public PinView getPinView()
+    {
+        return _pinView;
+    }
+
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
+
+        if (_pinView == null && _pinViewId != NO_ID)
+        {
+            View view = getRootView().findViewById(_pinViewId);
+            if (view instanceof PinView)
+            {
+                _pinView = (PinView) view;
+            }
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+    {
+        int width = getPaddingLeft() + getPaddingRight() + COLUMNS * _defaultKeySize;
+        int height = getPaddingTop() + getPaddingBottom() + ROWS * _defaultKeySize;
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event)
+    {
+        if (!isEnabled())
+        {
+            return false;
+        }
+
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN)
+        {
+            setPressedKey(getKeyAt(event.getX(), event.getY()));
+            return _pressedKey >= 0;
+        }
+        else if (action == MotionEvent.ACTION_MOVE)
+        {
+            // Sliding off a key cancels it
+            if (_pressedKey >= 0 && getKeyAt(event.getX(), event.getY()) != _pressedKey)
+            {
+                setPressedKey(-1);
+            }
+        }
+        else if (action == MotionEvent.ACTION_UP)
+        {
+            int key = _pressedKey;
+            setPressedKey(-1);
+            if (key >= 0 && getKeyAt(event.getX(), event.getY()) == key)
+            {
+                onKey(key);
+            }
+        }
+        else if (action == MotionEvent.ACTION_CANCEL)
+        {
+            setPressedKey(-1);
+        }
+        return true;
+    }
+
+    @Override
+    public AccessibilityNodeProvider getAccessibilityNodeProvider()
+    {
+        if (_nodeProvider == null)
+        {
+            _nodeProvider = new KeyNodeProvider();
+        }
+        return _nodeProvider;
+    }
+
+    @Override
+    public boolean dispatchHoverEvent(MotionEvent event)
+    {
+        // Touch exploration arrives as hover events; turn them into hovers over the virtual keys
+        AccessibilityManager manager = (AccessibilityManager) getContext().getSystemService(Context.ACCESSIBILITY_SERVICE);
+        if (manager == null || !manager.isEnabled() || !manager.isTouchExplorationEnabled())
+        {
+            return super.dispatchHoverEvent(event);
+        }
+
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_HOVER_ENTER || action == MotionEvent.ACTION_HOVER_MOVE)
+        {
+            setHoveredKey(getKeyAt(event.getX(), event.getY()));
+            return _hoveredKey >= 0 || super.dispatchHoverEvent(event);
+        }
+        if (action == MotionEvent.ACTION_HOVER_EXIT)
+        {
+            setHoveredKey(-1);
+        }
+        return super.dispatchHoverEvent(event);
+    }
+
+    private void setHoveredKey(int key)
+    {
+        if (key == _hoveredKey)
+        {
+            return;
+        }
+
+        int previous = _hoveredKey;
+        _hoveredKey = key;
+        if (key >= 0)
+        {
+            sendKeyEvent(key, AccessibilityEvent.TYPE_VIEW_HOVER_ENTER);
+        }
+        if (previous >= 0)
+        {
+            sendKeyEvent(previous, AccessibilityEvent.TYPE_VIEW_HOVER_EXIT);
+        }
+    }
+
+    private void sendKeyEvent(int key, int eventType)
+    {
+        ViewParent parent = getParent();
+        if (parent == null)
+        {
+            return;
+        }
+
+        AccessibilityEvent event = AccessibilityEvent.obtain(eventType);
+        event.setPackageName(getContext().getPackageName());
+        event.setClassName(KEY_CLASS_NAME);
+        event.setEnabled(isEnabled());
+        event.setContentDescription(getKeyDescription(key));
+        event.setSource(this, key);
+        parent.requestSendAccessibilityEvent(this, event);
+    }
+
+    private CharSequence getKeyDescription(int key)
+    {
+        if (key == KEY_CLEAR)
+        {
+            return getResources().getString(R.string.pin_keypad_clear);
+        }
+        if (key == KEY_DELETE)
+        {
+            return getResources().getString(R.string.pin_keypad_delete);
+        }
+        return String.valueOf(LABELS[key]);
+    }
+
+    private void getKeyBounds(int key, Rect bounds)
+    {
+        int left = getKeyLeft(key);
+        int top = getKeyTop(key);
+        bounds.set(left, top, left + getKeyWidth(), top + getKeyHeight());
+    }
+
+    private void onKey(int key)
+    {
+        performHapticFeedback(HapticFeedbackConstants.VIRTUAL_KEY);
+
+        if (_pinView == null)
+        {
+            return;
+        }
+
+        if (key == KEY_CLEAR)
+        {
+            _pinView.clear();
+        }
+        else if (key == KEY_DELETE)
+        {
+            _pinView.deleteLast();
+        }
+        else
+        {
+            _pinView.append(LABELS[key]);
+        }
+    }
+
+    /**
+     * @return the index of the key under the point, or -1 if there isn't one
+     */
+    private int getKeyAt(float x, float y)
+    {
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+        int keyWidth = getKeyWidth();
+        int keyHeight = getKeyHeight();
+        if (x < left || y < top || keyWidth <= 0 || keyHeight <= 0)
+        {
+            return -1;
+        }
+
+        int column = (int) (x - left) / keyWidth;
+        int row = (int) (y - top) / keyHeight;
+        if (column >= COLUMNS || row >= ROWS)
+        {
+            return -1;
+        }
+        return row * COLUMNS + column;
+    }
+
+    private void setPressedKey(int key)
+    {
+        if (key == _pressedKey)
+        {
+            return;
+        }
+
+        invalidateKey(_pressedKey);
+        _pressedKey = key;
+        invalidateKey(key);
+    }
+
+    private void invalidateKey(int key)
+    {
+        if (key >= 0)
+        {
+            int left = getKeyLeft(key);
+            int top = getKeyTop(key);
+            invalidate(left, top, left + getKeyWidth(), top + getKeyHeight());
+        }
+    }
+
+    private int getKeyWidth()
+    {
+        return (getWidth() - getPaddingLeft() - getPaddingRight()) / COLUMNS;
+    }
+
+    private int getKeyHeight()
+    {
+        return (getHeight() - getPaddingTop() - getPaddingBottom()) / ROWS;
+    }
+
+    private int getKeyLeft(int key)
+    {
+        return getPaddingLeft() + (key % COLUMNS) * getKeyWidth();
+    }
+
+    private int getKeyTop(int key)
+    {
+        return getPaddingTop() + (key / COLUMNS) * getKeyHeight();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas)
+    {
+        int keyWidth = getKeyWidth();
+        int keyHeight = getKeyHeight();
+        float baselineOffset = (keyHeight - _textPaint.ascent() - _textPaint.descent()) / 2;
+
+        for (int key = 0; key < LABELS.length; key++)
+        {
+            int left = getKeyLeft(key);
+            int top = getKeyTop(key);
+
+            if (key == _pressedKey)
+            {
+                canvas.drawRect(left, top, left + keyWidth, top + keyHeight, _pressedPaint);
+            }
+            canvas.drawText(LABELS, key, 1, left + keyWidth / 2f, top + baselineOffset, _textPaint);
+        }
+    }
+
+    /**
+     * Describes each key as a virtual child of the keypad.
+     */
+    private class KeyNodeProvider extends AccessibilityNodeProvider
+    {
+        private final Rect _bounds = new Rect();
+        private final int[] _location = new int[2];
+
+        @Override
+        public AccessibilityNodeInfo createAccessibilityNodeInfo(int virtualViewId)
+        {
+            if (virtualViewId == View.NO_ID)
+            {
+                AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(PinKeypadView.this);
+                onInitializeAccessibilityNodeInfo(info);
+                for (int key = 0; key < LABELS.length; key++)
+                {
+                    info.addChild(PinKeypadView.this, key);
+                }
+                return info;
+            }
+
+            if (virtualViewId < 0 || virtualViewId >= LABELS.length)
+            {
+                return null;
+            }
+
+            AccessibilityNodeInfo info = AccessibilityNodeInfo.obtain(PinKeypadView.this, virtualViewId);
+            info.setPackageName(getContext().getPackageName());
+            info.setClassName(KEY_CLASS_NAME);
+            info.setSource(PinKeypadView.this, virtualViewId);
+            info.setParent(PinKeypadView.this);
+            info.setContentDescription(getKeyDescription(virtualViewId));
+            info.setEnabled(isEnabled());
+            info.setVisibleToUser(true);
+            info.setClickable(true);
+            info.addAction(AccessibilityNodeInfo.ACTION_CLICK);
+
+            boolean focused = virtualViewId == _accessibilityFocusedKey;
+            info.setAccessibilityFocused(focused);
+            info.addAction(focused ? AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS
+                    : AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS);
+
+            getKeyBounds(virtualViewId, _bounds);
+            info.setBoundsInParent(_bounds);
+            getLocationOnScreen(_location);
+            _bounds.offset(_location[0], _location[1]);
+            info.setBoundsInScreen(_bounds);
+            return info;
+        }
+
+        @Override
+        public boolean performAction(int virtualViewId, int action, Bundle arguments)
+        {
+            if (virtualViewId == View.NO_ID)
+            {
+                return performAccessibilityAction(action, arguments);
+            }
+            if (virtualViewId < 0 || virtualViewId >= LABELS.length)
+            {
+                return false;
+            }
+
+            switch (action)
+            {
+                case AccessibilityNodeInfo.ACTION_CLICK:
+                    if (!isEnabled())
+                    {
+                        return false;
+                    }
+                    onKey(virtualViewId);
+                    sendKeyEvent(virtualViewId, AccessibilityEvent.TYPE_VIEW_CLICKED);
+                    return true;
+
+                case AccessibilityNodeInfo.ACTION_ACCESSIBILITY_FOCUS:
+                    if (_accessibilityFocusedKey == virtualViewId)
+                    {
+                        return false;
+                    }
+                    if (_accessibilityFocusedKey >= 0)
+                    {
+                        sendKeyEvent(_accessibilityFocusedKey, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+                    }
+                    _accessibilityFocusedKey = virtualViewId;
+                    invalidate();
+                    sendKeyEvent(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED);
+                    return true;
+
+                case AccessibilityNodeInfo.ACTION_CLEAR_ACCESSIBILITY_FOCUS:
+                    if (_accessibilityFocusedKey != virtualViewId)
+                    {
+                        return false;
+                    }
+                    _accessibilityFocusedKey = -1;
+                    invalidate();
+                    sendKeyEvent(virtualViewId, AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUS_CLEARED);
+                    return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.ameaney.pinhandler;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.ResultReceiver;
+import android.view.inputmethod.InputMethodManager;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long a {@link PinView} takes to show each edit, and how long the soft keyboard takes
+ * to come up after a tap.
+ *
+ * Set one with {@link PinView#setLatencyTracer(PinLatencyTracer)}. Samples are kept in fixed-size
+ * rings of primitives, so tracing doesn't allocate on the input path; percentiles are worked out
+ * only when asked for.
+ */
+public class PinLatencyTracer
+{
+    /**
+     * From an edit until the UI thread has finished the next frame that draws the PinView's window:
+     * drawn, and handed over to the RenderThread. The GPU work and buffer swap after that aren't
+     * included.
+     */
+    public static final int KEYSTROKE = 0;
+    /**
+     * From a tap until the input method has accepted the request to show itself. It may still be
+     * animating in at that point.
+     */
+    public static final int IME = 1;
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Edits that can be waiting on one frame before the oldest are dropped
+    private static final int MAX_PENDING_EDITS = 16;
+
+    public interface Listener
+    {
+        /**
+         * @param kind {@link #KEYSTROKE} or {@link #IME}
+         */
+        void onLatency(int kind, long nanos);
+    }
+
+    private final long[][] _samples;
+    private final int[] _counts = new int[2];
+    private final int[] _next = new int[2];
+
+    private final long[] _pendingEdits = new long[MAX_PENDING_EDITS];
+    private int _pendingEditCount;
+    // Edits in the frame being drawn, timed once it's done
+    private int _drawnEditCount;
+    private long _tapTime;
+
+    private Handler _handler;
+    private final Runnable _frameDone = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            onFrameDone();
+        }
+    };
+
+    private Listener _listener;
+    private ResultReceiver _imeReceiver;
+
+    public PinLatencyTracer()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity how many of the latest samples of each kind are kept
+     */
+    public PinLatencyTracer(int capacity)
+    {
+        _samples = new long[][] { new long[capacity], new long[capacity] };
+    }
+
+    public synchronized void setListener(Listener listener)
+    {
+        _listener = listener;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return the latency in nanoseconds, or -1 if there are no samples yet
+     */
+    public long getPercentile(int kind, int percentile)
+    {
+        long[] sorted;
+        synchronized (this)
+        {
+            int count = _counts[kind];
+            if (count == 0)
+            {
+                return -1;
+            }
+            sorted = Arrays.copyOf(_samples[kind], count);
+        }
+
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    public synchronized int getSampleCount(int kind)
+    {
+        return _counts[kind];
+    }
+
+    public synchronized void reset()
+    {
+        Arrays.fill(_counts, 0);
+        Arrays.fill(_next, 0);
+        _pendingEditCount = 0;
+        _drawnEditCount = 0;
+        _tapTime = 0;
+    }
+
+    // The hooks below are only called on the main thread; just the samples are shared
+
+    void onEdit()
+    {
+        if (_pendingEditCount == MAX_PENDING_EDITS)
+        {
+            System.arraycopy(_pendingEdits, 1, _pendingEdits, 0, MAX_PENDING_EDITS - 1);
+            _pendingEditCount--;
+            if (_drawnEditCount > 0)
+            {
+                _drawnEditCount--;
+            }
+        }
+        _pendingEdits[_pendingEditCount++] = System.nanoTime();
+    }
+
+    /**
+     * Called when the window starts drawing. The frame is timed from a message posted behind it, so
+     * the draw itself and the sync with the RenderThread are counted.
+     */
+    void onDraw()
+    {
+        if (_pendingEditCount == 0 || _drawnEditCount > 0)
+        {
+            return;
+        }
+        _drawnEditCount = _pendingEditCount;
+
+        if (_handler == null)
+        {
+            _handler = new Handler(Looper.getMainLooper());
+        }
+
+        Message message = Message.obtain(_handler, _frameDone);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1)
+        {
+            // Not held back by the sync barrier of a traversal scheduled during this one
+            message.setAsynchronous(true);
+        }
+        _handler.sendMessage(message);
+    }
+
+    private void onFrameDone()
+    {
+        int count = _drawnEditCount;
+        if (count == 0)
+        {
+            // Reset since
+            return;
+        }
+        _drawnEditCount = 0;
+
+        long now = System.nanoTime();
+        Listener listener;
+        synchronized (this)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                record(KEYSTROKE, now - _pendingEdits[i]);
+            }
+            listener = _listener;
+        }
+
+        for (int i = 0; listener != null && i < count; i++)
+        {
+            listener.onLatency(KEYSTROKE, now - _pendingEdits[i]);
+        }
+
+        // Edits made after the frame started drawing wait for the next one
+        _pendingEditCount -= count;
+        System.arraycopy(_pendingEdits, count, _pendingEdits, 0, _pendingEditCount);
+    }
+
+    void onTap()
+    {
+        _tapTime = System.nanoTime();
+    }
+
+    /**
+     * @return a receiver to pass to showSoftInput(), which times the keyboard coming up. Only call
+     * on the main thread.
+     */
+    ResultReceiver getImeReceiver()
+    {
+        if (_imeReceiver == null)
+        {
+            _imeReceiver = new ResultReceiver(new Handler(Looper.getMainLooper()))
+            {
+                @Override
+                protected void onReceiveResult(int resultCode, Bundle resultData)
+                {
+                    // The input method has taken the request to show; it can't say when it's on screen
+                    if (resultCode == InputMethodManager.RESULT_SHOWN
+                            || resultCode == InputMethodManager.RESULT_UNCHANGED_SHOWN)
+                    {
+                        onImeAccepted();
+                    }
+                }
+            };
+        }
+        return _imeReceiver;
+    }
+
+    private void onImeAccepted()
+    {
+        if (_tapTime == 0)
+        {
+            return;
+        }
+
+        long latency = System.nanoTime() - _tapTime;
+        _tapTime = 0;
+
+        Listener listener;
+        synchronized (this)
+        {
+            record(IME, latency);
+            listener = _listener;
+        }
+
+        if (listener != null)
+        {
+            listener.onLatency(IME, latency);
+        }
+    }
+
+    private void record(int kind, long nanos)
+    {
+        long[] samples = _samples[kind];
+        samples[_next[kind]] = nanos;
+        _next[kind] = (_next[kind] + 1) % samples.length;
+        _counts[kind] = Math.min(_counts[kind] + 1, samples.length);
+    }
+}
@@ -0,0 +1,61 @@
+package com.ameaney.pinhandler;
+
+/**
+ * Receives timings and counts from {@link PinStorage}.
+ *
+ * Calls happen on whichever thread did the work, inline, so implementations should be quick and
+ * thread safe. Everything is passed as primitives; nothing is allocated per call.
+ */
+public interface PinMetrics
+{
+    // Timings
+    int LOAD = 0;
+    int HASH = 1;
+    int COMPARE = 2;
+    int WRITE = 3;
+
+    int TIMING_COUNT = 4;
+
+    // Counters
+    int CONFIRM_CALLS = 0;
+    int SET_CALLS = 1;
+    int HAS_CALLS = 2;
+    int CONFIRM_HITS = 3;
+    int CONFIRM_FAILURES = 4;
+    int WRITE_FAILURES = 5;
+
+    int COUNTER_COUNT = 6;
+
+    /**
+     * Does nothing. PinStorage skips the clock altogether while this is set.
+     */
+    PinMetrics NONE = new PinMetrics()
+    {
+        @Override
+        public void onBegin(int timing)
+        {
+        }
+
+        @Override
+        public void onEnd(int timing, long nanos)
+        {
+        }
+
+        @Override
+        public void onCount(int counter)
+        {
+        }
+    };
+
+    /**
+     * Called as a timed step starts, on the thread doing it.
+     */
+    void onBegin(int timing);
+
+    /**
+     * Called as a timed step ends, with its duration from {@link System#nanoTime()}.
+     */
+    void onEnd(int timing, long nanos);
+
+    void onCount(int counter);
+}
@@ -0,0 +1,160 @@
+package com.ameaney.pinhandler;
+
+/**
+ * A stored pin: the hash plus everything needed to reproduce it.
+ *
+ * Records are written as {@code $2$<hasher>$<cost>$<salt hex>$<hash hex>}. Tokens written by
+ * earlier versions are a bare MD5 hex string and are read back as version 1 records.
+ */
+public class PinRecord
+{
+    public static final int LEGACY_VERSION = 1;
+    public static final int VERSION = 2;
+
+    public static final int SALT_LENGTH = 16;
+
+    private static final String SEPARATOR = "$";
+
+    private final int _version;
+    private final String _hasherId;
+    private final int _cost;
+    private final byte[] _salt;
+    private final byte[] _hash;
+
+    // The token this record was parsed from, if any
+    private String _token;
+
+    public PinRecord(String hasherId, int cost, byte[] salt, byte[] hash)
+    {
+        this(VERSION, hasherId, cost, salt, hash);
+    }
+
+    private PinRecord(int version, String hasherId, int cost, byte[] salt, byte[] hash)
+    {
+        _version = version;
+        _hasherId = hasherId;
+        _cost = cost;
+        _salt = salt;
+        _hash = hash;
+    }
+
+    public int getVersion()
+    {
+        return _version;
+    }
+
+    public String getHasherId()
+    {
+        return _hasherId;
+    }
+
+    public int getCost()
+    {
+        return _cost;
+    }
+
+    public byte[] getSalt()
+    {
+        return _salt;
+    }
+
+    public byte[] getHash()
+    {
+        return _hash;
+    }
+
+    String getToken()
+    {
+        return _token;
+    }
+
+    /**
+     * Hashes the pin the same way as this record's hash, with the given hasher for its id.
+     */
+    byte[] hash(PinHasher hasher, char[] pin)
+    {
+        if (hasher instanceof Pbkdf2PinHasher)
+        {
+            // The key length isn't stored, but it's the length of the hash
+            return ((Pbkdf2PinHasher) hasher).hash(pin, _salt, _cost, _hash.length * 8);
+        }
+        return hasher.hash(pin, _salt, _cost);
+    }
+
+    /**
+     * @return whether the record was made with the given hasher at its current settings
+     */
+    boolean isCurrent(PinHasher hasher)
+    {
+        if (isLegacy() || !_hasherId.equals(hasher.getId()))
+        {
+            return false;
+        }
+        return !(hasher instanceof Pbkdf2PinHasher) || _hash.length * 8 == Pbkdf2PinHasher.KEY_LENGTH;
+    }
+
+    public boolean isLegacy()
+    {
+        return _version == LEGACY_VERSION;
+    }
+
+    /**
+     * @return the record, or null if the token is empty or can't be read
+     */
+    public static PinRecord parse(String token)
+    {
+        if (token == null || token.isEmpty())
+        {
+            return null;
+        }
+
+        PinRecord record = decode(token);
+        if (record != null)
+        {
+            record._token = token;
+        }
+        return record;
+    }
+
+    private static PinRecord decode(String token)
+    {
+        if (!token.startsWith(SEPARATOR))
+        {
+            byte[] hash = Hex.decode(token);
+            return hash == null ? null : new PinRecord(LEGACY_VERSION, Md5PinHasher.ID, 1, new byte[0], hash);
+        }
+
+        String[] parts = token.split("\\$");
+        if (parts.length != 6 || !String.valueOf(VERSION).equals(parts[1]))
+        {
+            return null;
+        }
+
+        try
+        {
+            int cost = Integer.parseInt(parts[3]);
+            byte[] salt = Hex.decode(parts[4]);
+            byte[] hash = Hex.decode(parts[5]);
+            if (salt == null || hash == null)
+            {
+                return null;
+            }
+            return new PinRecord(VERSION, parts[2], cost, salt, hash);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    public String encode()
+    {
+        if (isLegacy())
+        {
+            return Hex.encode(_hash);
+        }
+
+        return SEPARATOR + _version + SEPARATOR + _hasherId + SEPARATOR + _cost
+                + SEPARATOR + Hex.encode(_salt) + SEPARATOR + Hex.encode(_hash);
+    }
+}
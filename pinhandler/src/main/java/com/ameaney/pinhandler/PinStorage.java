@@ -1,81 +1,617 @@
 package com.ameaney.pinhandler;
 
-import android.app.Activity;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PinStorage
 {
-    private final String PIN_KEY = "PinKey";
+    public static final long DEFAULT_TARGET_LATENCY = 150;
 
-    public boolean confirmPin(Activity activity, String pin)
+    private static final String PIN_KEY = "PinKey";
+
+    private static final SecureRandom _random = new SecureRandom();
+    private static final Md5PinHasher _legacyHasher = new Md5PinHasher();
+
+    private static final PinTokenCache _defaultTokenCache = new PinTokenCache(PIN_KEY);
+    // One cache per backend, so storages sharing a backend also share the listener it holds.
+    // Backends are weakly held and caches don't refer back to them, so both go with the backend.
+    private static final Map<PinStorageBackend, PinTokenCache> _tokenCaches = new WeakHashMap<PinStorageBackend, PinTokenCache>();
+    private static PinStorageBackend _defaultBackend;
+
+    private static Handler _mainHandler;
+
+    // Null when the preferences come from the Context passed to each call
+    private final PinStorageBackend _backend;
+    private final PinTokenCache _tokenCache;
+
+    private Executor _executor;
+    private SerialExecutor _writeQueue;
+    private final AtomicInteger _pendingWrites = new AtomicInteger();
+
+    private PinHasher _hasher = new Pbkdf2PinHasher();
+    private PinMetrics _metrics = PinMetrics.NONE;
+    private long _targetLatency = DEFAULT_TARGET_LATENCY;
+
+    // Last parsed record, reused while the stored token stays the same
+    private volatile PinRecord _record;
+
+    public PinStorage()
+    {
+        _backend = null;
+        _tokenCache = _defaultTokenCache;
+    }
+
+    /**
+     * Creates a storage that keeps the pin in the given preferences, so the Context arguments can
+     * be left out (or passed as null).
+     */
+    public PinStorage(SharedPreferences preferences)
+    {
+        this(new PreferencesBackend(preferences));
+    }
+
+    /**
+     * Creates a storage that keeps the pin in the given backend, so the Context arguments can be
+     * left out (or passed as null).
+     */
+    public PinStorage(PinStorageBackend backend)
+    {
+        _backend = backend;
+        _tokenCache = getTokenCache(backend);
+    }
+
+    /**
+     * Sets the executor the async methods run on, AsyncTask.THREAD_POOL_EXECUTOR by default.
+     * Writes are still applied one at a time, in order with any already queued.
+     */
+    public synchronized void setExecutor(Executor executor)
+    {
+        _executor = executor;
+        if (_writeQueue == null)
+        {
+            _writeQueue = new SerialExecutor(executor);
+        }
+        else
+        {
+            _writeQueue.setExecutor(executor);
+        }
+    }
+
+    /**
+     * Sets the hasher new pins are stored with. Pins stored with another hasher are rehashed the
+     * next time they are confirmed.
+     */
+    public void setHasher(PinHasher hasher)
+    {
+        _hasher = hasher;
+    }
+
+    /**
+     * Sets roughly how long hashing a pin should take, in milliseconds. The hasher cost is
+     * calibrated against this the first time a pin is set in the process.
+     */
+    public void setTargetLatency(long millis)
+    {
+        _targetLatency = millis;
+    }
+
+    /**
+     * Sets where timings and counts go. Set it before the storage is used.
+     */
+    public void setMetrics(PinMetrics metrics)
+    {
+        _metrics = metrics != null ? metrics : PinMetrics.NONE;
+    }
+
+    public boolean confirmPin(Context context, String pin)
     {
         if (pin == null || pin.isEmpty())
         {
             return false;
         }
 
-        SharedPreferences preferences = activity.getSharedPreferences(PIN_KEY, Context.MODE_PRIVATE);
-        String token = preferences.getString(PIN_KEY, "");
+        char[] chars = pin.toCharArray();
+        try
+        {
+            return confirmPin(context, chars);
+        }
+        finally
+        {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    /**
+     * Same as {@link #confirmPin(Context, String)}, without turning the pin into a String. The
+     * array isn't modified; clearing it afterwards is up to the caller.
+     */
+    public boolean confirmPin(Context context, char[] pin)
+    {
+        count(PinMetrics.CONFIRM_CALLS);
 
-        if (token.isEmpty())
+        if (pin == null || pin.length == 0)
         {
+            count(PinMetrics.CONFIRM_FAILURES);
             return false;
         }
 
-        String hash = MD5Encode(pin);
+        PinRecord record = getRecord(context);
 
-        return token.equals(hash);
+        if (record == null || !verify(record, pin))
+        {
+            count(PinMetrics.CONFIRM_FAILURES);
+            return false;
+        }
+
+        count(PinMetrics.CONFIRM_HITS);
+        onConfirmed(context, record, pin);
+        return true;
+    }
+
+    /**
+     * Called once a pin has been checked against the record, however that happened.
+     */
+    void onConfirmed(Context context, PinRecord record, char[] pin)
+    {
+        if (!isCurrent(record))
+        {
+            upgrade(getApplicationContext(context), pin.clone());
+        }
     }
 
-    public boolean setPin(Activity activity, String pin)
+    public boolean setPin(Context context, String pin)
     {
         if (pin == null || pin.isEmpty())
         {
             return false;
         }
 
-        SharedPreferences preferences = activity.getSharedPreferences(PIN_KEY, Context.MODE_PRIVATE);
-        return preferences.edit().putString(PIN_KEY, MD5Encode(pin)).commit();
+        char[] chars = pin.toCharArray();
+        try
+        {
+            return setPin(context, chars);
+        }
+        finally
+        {
+            Arrays.fill(chars, '\0');
+        }
     }
 
-    public boolean hasPin(Activity activity)
+    /**
+     * Same as {@link #setPin(Context, String)}, without turning the pin into a String. The array
+     * isn't modified; clearing it afterwards is up to the caller.
+     */
+    public boolean setPin(Context context, char[] pin)
     {
-        SharedPreferences preferences = activity.getSharedPreferences(PIN_KEY, Context.MODE_PRIVATE);
+        count(PinMetrics.SET_CALLS);
+
+        if (pin == null || pin.length == 0)
+        {
+            return false;
+        }
 
-        String token = preferences.getString(PIN_KEY, "");
+        // The record carries its salt and cost, so storing it is a single write
+        String token = createRecord(pin).encode();
+
+        PinStorageBackend backend = getBackend(context);
+        boolean written;
+        long start = begin(PinMetrics.WRITE);
+        try
+        {
+            written = backend.write(Collections.singletonMap(PIN_KEY, token));
+        }
+        finally
+        {
+            end(PinMetrics.WRITE, start);
+        }
+
+        if (!written)
+        {
+            count(PinMetrics.WRITE_FAILURES);
+            _tokenCache.invalidate();
+            return false;
+        }
+
+        _tokenCache.put(token);
+        return true;
+    }
+
+    public boolean hasPin(Context context)
+    {
+        count(PinMetrics.HAS_CALLS);
+
+        String token = getToken(context);
 
         return !token.isEmpty();
     }
 
-    public String MD5Encode(String pin)
+    public boolean confirmPin(String pin)
+    {
+        return confirmPin((Context) null, pin);
+    }
+
+    public boolean confirmPin(char[] pin)
+    {
+        return confirmPin((Context) null, pin);
+    }
+
+    public boolean setPin(String pin)
+    {
+        return setPin((Context) null, pin);
+    }
+
+    public boolean setPin(char[] pin)
+    {
+        return setPin((Context) null, pin);
+    }
+
+    public boolean hasPin()
+    {
+        return hasPin((Context) null);
+    }
+
+    public void confirmPinAsync(Context context, final String pin, final OnPinResultListener listener)
+    {
+        final Context applicationContext = getApplicationContext(context);
+        read(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deliver(listener, confirmPin(applicationContext, pin));
+            }
+        });
+    }
+
+    public void setPinAsync(Context context, final String pin, final OnPinResultListener listener)
+    {
+        final Context applicationContext = getApplicationContext(context);
+        write(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deliver(listener, setPin(applicationContext, pin));
+            }
+        });
+    }
+
+    public void hasPinAsync(Context context, final OnPinResultListener listener)
+    {
+        final Context applicationContext = getApplicationContext(context);
+        read(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deliver(listener, hasPin(applicationContext));
+            }
+        });
+    }
+
+    private PinRecord createRecord(char[] pin)
+    {
+        byte[] salt = new byte[PinRecord.SALT_LENGTH];
+        _random.nextBytes(salt);
+
+        int cost = PinHashCalibrator.getCost(_hasher, _targetLatency);
+
+        byte[] hash;
+        long start = begin(PinMetrics.HASH);
+        try
+        {
+            hash = _hasher.hash(pin, salt, cost);
+        }
+        finally
+        {
+            end(PinMetrics.HASH, start);
+        }
+
+        return new PinRecord(_hasher.getId(), cost, salt, hash);
+    }
+
+    boolean verify(PinRecord record, char[] pin)
     {
+        PinHasher hasher = getHasher(record.getHasherId());
+        if (hasher == null)
+        {
+            return false;
+        }
+
+        long start = begin(PinMetrics.HASH);
+        if (hasher instanceof Md5PinHasher)
+        {
+            // Hashes and compares in one go
+            try
+            {
+                return ((Md5PinHasher) hasher).verify(pin, record.getHash());
+            }
+            finally
+            {
+                end(PinMetrics.HASH, start);
+            }
+        }
+
+        byte[] hash;
         try
         {
-            // Create MD5 Hash
-            MessageDigest digest = java.security.MessageDigest.getInstance("MD5");
-            digest.update(pin.getBytes());
-            byte messageDigest[] = digest.digest();
+            hash = record.hash(hasher, pin);
+        }
+        finally
+        {
+            end(PinMetrics.HASH, start);
+        }
 
-            StringBuilder MD5Hash = new StringBuilder();
-            for (byte letter : messageDigest)
+        start = begin(PinMetrics.COMPARE);
+        try
+        {
+            return MessageDigest.isEqual(record.getHash(), hash);
+        }
+        finally
+        {
+            Arrays.fill(hash, (byte) 0);
+            end(PinMetrics.COMPARE, start);
+        }
+    }
+
+    private boolean isCurrent(PinRecord record)
+    {
+        return record.isCurrent(_hasher);
+    }
+
+    private PinHasher getHasher(String id)
+    {
+        if (id.equals(_hasher.getId()))
+        {
+            return _hasher;
+        }
+        if (id.equals(_legacyHasher.getId()))
+        {
+            return _legacyHasher;
+        }
+        if (id.equals(Pbkdf2PinHasher.ID))
+        {
+            return new Pbkdf2PinHasher();
+        }
+        return null;
+    }
+
+    private void upgrade(final Context context, final char[] pin)
+    {
+        // Rehash with the current hasher in the background, unless the pin changed in the meantime
+        write(new Runnable()
+        {
+            @Override
+            public void run()
             {
-                String hexString = Integer.toHexString(0xFF & letter);
-                while (hexString.length() < 2)
+                try
                 {
-                    hexString = "0" + hexString;
+                    PinRecord record = getRecord(context);
+                    if (record != null && !isCurrent(record) && verify(record, pin))
+                    {
+                        setPin(context, pin);
+                    }
+                }
+                finally
+                {
+                    Arrays.fill(pin, '\0');
                 }
-                MD5Hash.append(hexString);
             }
-            return MD5Hash.toString();
+        });
+    }
+
+    PinRecord getRecord(Context context)
+    {
+        String token = getToken(context);
+
+        PinRecord record = _record;
+        if (record == null || record.getToken() != token)
+        {
+            record = PinRecord.parse(token);
+            _record = record;
         }
-        catch (NoSuchAlgorithmException e)
+        return record;
+    }
+
+    private String getToken(Context context)
+    {
+        String token = _tokenCache.get();
+        if (token == null)
+        {
+            PinStorageBackend backend = getBackend(context);
+            long start = begin(PinMetrics.LOAD);
+            try
+            {
+                token = _tokenCache.load(backend);
+            }
+            finally
+            {
+                end(PinMetrics.LOAD, start);
+            }
+        }
+        return token;
+    }
+
+    private long begin(int timing)
+    {
+        PinMetrics metrics = _metrics;
+        if (metrics == PinMetrics.NONE)
+        {
+            return 0;
+        }
+
+        metrics.onBegin(timing);
+        return System.nanoTime();
+    }
+
+    private void end(int timing, long start)
+    {
+        // A zero start means the step wasn't begun with metrics on
+        PinMetrics metrics = _metrics;
+        if (start != 0 && metrics != PinMetrics.NONE)
+        {
+            metrics.onEnd(timing, System.nanoTime() - start);
+        }
+    }
+
+    private void count(int counter)
+    {
+        PinMetrics metrics = _metrics;
+        if (metrics != PinMetrics.NONE)
+        {
+            metrics.onCount(counter);
+        }
+    }
+
+    private PinStorageBackend getBackend(Context context)
+    {
+        if (_backend != null)
+        {
+            return _backend;
+        }
+
+        if (context == null)
         {
-            e.printStackTrace();
-            return "";
+            throw new IllegalStateException("A Context is needed unless PinStorage was created with a backend");
         }
+        return getDefaultBackend(context);
+    }
+
+    private static PinTokenCache getTokenCache(PinStorageBackend backend)
+    {
+        synchronized (_tokenCaches)
+        {
+            PinTokenCache tokenCache = _tokenCaches.get(backend);
+            if (tokenCache == null)
+            {
+                tokenCache = new PinTokenCache(PIN_KEY);
+                _tokenCaches.put(backend, tokenCache);
+            }
+            return tokenCache;
+        }
+    }
+
+    private static synchronized PinStorageBackend getDefaultBackend(Context context)
+    {
+        // Every Context gives back the same preferences file, so one backend does for all of them
+        if (_defaultBackend == null)
+        {
+            _defaultBackend = new PreferencesBackend(context.getSharedPreferences(PIN_KEY, Context.MODE_PRIVATE));
+        }
+        return _defaultBackend;
+    }
+
+    static Context getApplicationContext(Context context)
+    {
+        return context == null ? null : context.getApplicationContext();
+    }
+
+    private synchronized Executor getExecutor()
+    {
+        if (_executor == null)
+        {
+            setExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return _executor;
+    }
+
+    private synchronized Executor getWriteQueue()
+    {
+        getExecutor();
+        return _writeQueue;
+    }
+
+    private void write(final Runnable task)
+    {
+        _pendingWrites.incrementAndGet();
+        getWriteQueue().execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    _pendingWrites.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    void read(Runnable task)
+    {
+        // Reads queue up behind pending writes so they see the value that was just set
+        if (_pendingWrites.get() > 0)
+        {
+            getWriteQueue().execute(task);
+        }
+        else
+        {
+            getExecutor().execute(task);
+        }
+    }
+
+    static void deliver(final OnPinResultListener listener, final boolean result)
+    {
+        if (listener == null)
+        {
+            return;
+        }
+
+        getMainHandler().post(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                listener.onResult(result);
+            }
+        });
+    }
+
+    static synchronized Handler getMainHandler()
+    {
+        if (_mainHandler == null)
+        {
+            _mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return _mainHandler;
+    }
+
+    public String MD5Encode(String pin)
+    {
+        char[] chars = pin.toCharArray();
+        char[] hex = new char[Md5PinHasher.DIGEST_LENGTH * 2];
+        try
+        {
+            MD5Encode(chars, hex);
+            return new String(hex);
+        }
+        finally
+        {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    /**
+     * Writes the MD5 hash of the pin as hex into {@code out}, which must hold at least 32 chars.
+     */
+    public void MD5Encode(char[] pin, char[] out)
+    {
+        _legacyHasher.encodeHex(pin, out);
     }
 }
@@ -0,0 +1,31 @@
+package com.ameaney.pinhandler;
+
+import java.util.Map;
+
+/**
+ * Where {@link PinStorage} keeps its values.
+ *
+ * Implementations must be safe to call from any thread. Listeners hear about every change,
+ * including ones made by other PinStorage instances sharing the backend.
+ */
+public interface PinStorageBackend
+{
+    interface Listener
+    {
+        void onChanged(String key);
+    }
+
+    /**
+     * @return the value stored under the key, or null if there isn't one
+     */
+    String get(String key);
+
+    /**
+     * Applies all the changes as one durable write. A null value removes its key.
+     *
+     * @return false if nothing could be written
+     */
+    boolean write(Map<String, String> changes);
+
+    void addListener(Listener listener);
+}
@@ -0,0 +1,601 @@
+package com.ameaney.pinhandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Pins for any number of profiles, kept in one compact binary file.
+ *
+ * The file is read once when the store is opened, into an in-memory index, so lookups never touch
+ * the disk. Every change is appended with a checksum and synced. When most of the file is stale it
+ * is rewritten to a temporary file and renamed over the original. A write torn by a crash fails
+ * its checksum and is dropped the next time the store is opened; damage anywhere before the last
+ * entry fails the open instead.
+ */
+public class PinStore
+{
+    private static final int MAGIC = 0x50494e53; // "PINS"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_REMOVE = 2;
+
+    // Entry framing: body length before the body, CRC32 of the body after it
+    private static final int FRAME_LENGTH = 8;
+    private static final int MAX_BODY_LENGTH = 0xffff;
+
+    // Keeps every entry well inside MAX_BODY_LENGTH
+    public static final int MAX_PROFILE_ID_LENGTH = 1024;
+
+    // Compact when stale entries are over half the file, once it's at least this big
+    private static final long MIN_COMPACT_LENGTH = 64 * 1024;
+
+    private static final SecureRandom _random = new SecureRandom();
+
+    private final File _file;
+    private RandomAccessFile _output;
+
+    private final Map<String, Entry> _index = new HashMap<String, Entry>();
+
+    // Bytes in the file, and how many of them still belong to the index
+    private long _length;
+    private long _liveLength;
+
+    private PinHasher _hasher = new Pbkdf2PinHasher();
+    private long _targetLatency = PinStorage.DEFAULT_TARGET_LATENCY;
+
+    private PinStore(File file)
+    {
+        _file = file;
+    }
+
+    /**
+     * Opens the store in the given file, creating it if needed. Reads the whole file, so open it
+     * off the main thread. Fails if the file is damaged anywhere but its last entry.
+     */
+    public static PinStore open(File file) throws IOException
+    {
+        PinStore store = new PinStore(file);
+        store.load();
+        return store;
+    }
+
+    /**
+     * Sets the hasher new pins are stored with.
+     */
+    public void setHasher(PinHasher hasher)
+    {
+        _hasher = hasher;
+    }
+
+    /**
+     * Sets roughly how long hashing a pin should take, in milliseconds.
+     */
+    public void setTargetLatency(long millis)
+    {
+        _targetLatency = millis;
+    }
+
+    public boolean setPin(String profileId, String pin)
+    {
+        if (pin == null || pin.isEmpty())
+        {
+            return false;
+        }
+
+        char[] chars = pin.toCharArray();
+        try
+        {
+            return setPin(profileId, chars);
+        }
+        finally
+        {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    /**
+     * Hashes and stores the pin for the profile. The array isn't modified.
+     *
+     * @return false if the pin is empty or couldn't be written
+     */
+    public boolean setPin(String profileId, char[] pin)
+    {
+        if (pin == null || pin.length == 0)
+        {
+            return false;
+        }
+
+        if (profileId.length() > MAX_PROFILE_ID_LENGTH)
+        {
+            throw new IllegalArgumentException("Profile ids can't be longer than " + MAX_PROFILE_ID_LENGTH);
+        }
+
+        // Hash outside the lock so other profiles can be checked meanwhile
+        PinRecord record = createRecord(pin);
+
+        synchronized (this)
+        {
+            return append(encodePut(profileId, record), profileId, record);
+        }
+    }
+
+    public boolean confirmPin(String profileId, String pin)
+    {
+        if (pin == null || pin.isEmpty())
+        {
+            return false;
+        }
+
+        char[] chars = pin.toCharArray();
+        try
+        {
+            return confirmPin(profileId, chars);
+        }
+        finally
+        {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    /**
+     * Checks the pin for the profile. Never reads from disk. The array isn't modified.
+     */
+    public boolean confirmPin(String profileId, char[] pin)
+    {
+        if (pin == null || pin.length == 0)
+        {
+            return false;
+        }
+
+        PinRecord record;
+        synchronized (this)
+        {
+            Entry entry = _index.get(profileId);
+            record = entry == null ? null : entry._record;
+        }
+
+        if (record == null)
+        {
+            return false;
+        }
+
+        PinHasher hasher = getHasher(record.getHasherId());
+        if (hasher == null)
+        {
+            return false;
+        }
+
+        byte[] hash = record.hash(hasher, pin);
+        try
+        {
+            return MessageDigest.isEqual(record.getHash(), hash);
+        }
+        finally
+        {
+            Arrays.fill(hash, (byte) 0);
+        }
+    }
+
+    public synchronized boolean hasPin(String profileId)
+    {
+        return _index.containsKey(profileId);
+    }
+
+    /**
+     * @return false if the profile had no pin or the removal couldn't be written
+     */
+    public synchronized boolean remove(String profileId)
+    {
+        if (!_index.containsKey(profileId))
+        {
+            return false;
+        }
+
+        return append(encodeRemove(profileId), profileId, null);
+    }
+
+    /**
+     * @return the ids of every profile with a pin, in no particular order
+     */
+    public synchronized List<String> list()
+    {
+        return new ArrayList<String>(_index.keySet());
+    }
+
+    public synchronized int size()
+    {
+        return _index.size();
+    }
+
+    /**
+     * Rewrites the file with only the current pins. Happens on its own as stale entries pile up.
+     */
+    public synchronized boolean compact()
+    {
+        File temp = new File(_file.getPath() + ".tmp");
+        try
+        {
+            long length = HEADER_LENGTH;
+            FileOutputStream stream = new FileOutputStream(temp);
+            try
+            {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+                writeHeader(output);
+                for (Map.Entry<String, Entry> entry : _index.entrySet())
+                {
+                    byte[] bytes = encodePut(entry.getKey(), entry.getValue()._record);
+                    output.write(bytes);
+                    entry.getValue()._length = bytes.length;
+                    length += bytes.length;
+                }
+                output.flush();
+                stream.getFD().sync();
+            }
+            finally
+            {
+                stream.close();
+            }
+
+            // The rename either happens completely or not at all, so a crash leaves one whole file
+            _output.close();
+            _output = null;
+            if (!temp.renameTo(_file))
+            {
+                throw new IOException("Unable to replace " + _file);
+            }
+
+            _output = new RandomAccessFile(_file, "rw");
+            _length = length;
+            _liveLength = length - HEADER_LENGTH;
+            return true;
+        }
+        catch (IOException e)
+        {
+            temp.delete();
+            if (_output == null)
+            {
+                // The old file is still in place; the sizes kept for it are out of date but harmless
+                try
+                {
+                    _output = new RandomAccessFile(_file, "rw");
+                    _length = _output.length();
+                }
+                catch (IOException reopenException)
+                {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    public synchronized void close() throws IOException
+    {
+        if (_output != null)
+        {
+            _output.close();
+            _output = null;
+        }
+    }
+
+    private PinRecord createRecord(char[] pin)
+    {
+        byte[] salt = new byte[PinRecord.SALT_LENGTH];
+        _random.nextBytes(salt);
+
+        int cost = PinHashCalibrator.getCost(_hasher, _targetLatency);
+
+        return new PinRecord(_hasher.getId(), cost, salt, _hasher.hash(pin, salt, cost));
+    }
+
+    private PinHasher getHasher(String id)
+    {
+        if (id.equals(_hasher.getId()))
+        {
+            return _hasher;
+        }
+        if (id.equals(Pbkdf2PinHasher.ID))
+        {
+            return new Pbkdf2PinHasher();
+        }
+        if (id.equals(Md5PinHasher.ID))
+        {
+            return new Md5PinHasher();
+        }
+        return null;
+    }
+
+    private boolean append(byte[] bytes, String profileId, PinRecord record)
+    {
+        if (_output == null)
+        {
+            return false;
+        }
+
+        try
+        {
+            if (_output.length() > _length)
+            {
+                // Left over from an append that failed and couldn't be cut off then
+                _output.setLength(_length);
+            }
+            _output.seek(_length);
+            _output.write(bytes);
+            _output.getFD().sync();
+        }
+        catch (IOException e)
+        {
+            // Drop whatever part of the entry made it out
+            try
+            {
+                _output.setLength(_length);
+            }
+            catch (IOException truncateException)
+            {
+                // The checksum catches it on the next open
+            }
+            return false;
+        }
+        _length += bytes.length;
+
+        Entry old = record == null ? _index.remove(profileId) : _index.put(profileId, new Entry(record, bytes.length));
+        if (old != null)
+        {
+            _liveLength -= old._length;
+        }
+        if (record != null)
+        {
+            _liveLength += bytes.length;
+        }
+
+        if (_length >= MIN_COMPACT_LENGTH && _length - _liveLength > _liveLength)
+        {
+            compact();
+        }
+        return true;
+    }
+
+    private void load() throws IOException
+    {
+        if (!_file.exists() || _file.length() == 0)
+        {
+            DataOutputStream output = new DataOutputStream(new FileOutputStream(_file));
+            try
+            {
+                writeHeader(output);
+            }
+            finally
+            {
+                output.close();
+            }
+        }
+
+        long fileLength = _file.length();
+        long length = HEADER_LENGTH;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+        try
+        {
+            if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION)
+            {
+                throw new IOException(_file + " is not a pin store");
+            }
+
+            CRC32 crc = new CRC32();
+            byte[] body = new byte[MAX_BODY_LENGTH];
+            while (true)
+            {
+                // Entries are appended one at a time and synced, so only the last one can be torn:
+                // cut short, or never written over the zeros its space was allocated with. A bad
+                // entry anywhere else is damage from outside, and cutting it off would lose every
+                // good entry after it.
+                int bodyLength;
+                try
+                {
+                    bodyLength = input.readInt();
+                    if (bodyLength == 0 && isZeroToEnd(input))
+                    {
+                        break;
+                    }
+                    if (bodyLength <= 0 || bodyLength > MAX_BODY_LENGTH)
+                    {
+                        throw corrupt(length);
+                    }
+                    input.readFully(body, 0, bodyLength);
+
+                    crc.reset();
+                    crc.update(body, 0, bodyLength);
+                    if (input.readInt() != (int) crc.getValue())
+                    {
+                        if (length + FRAME_LENGTH + bodyLength == fileLength)
+                        {
+                            break;
+                        }
+                        throw corrupt(length);
+                    }
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+
+                int entryLength = bodyLength + FRAME_LENGTH;
+                if (!apply(body, bodyLength, entryLength))
+                {
+                    throw corrupt(length);
+                }
+                length += entryLength;
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+
+        _output = new RandomAccessFile(_file, "rw");
+        if (_output.length() > length)
+        {
+            // Cut off a torn tail so new entries follow the last good one
+            _output.setLength(length);
+            _output.getFD().sync();
+        }
+        _length = length;
+    }
+
+    private static boolean isZeroToEnd(DataInputStream input) throws IOException
+    {
+        int b;
+        while ((b = input.read()) != -1)
+        {
+            if (b != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IOException corrupt(long offset)
+    {
+        return new IOException(_file + " is damaged at offset " + offset);
+    }
+
+    private boolean apply(byte[] body, int bodyLength, int entryLength)
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(body, 0, bodyLength));
+        try
+        {
+            byte type = input.readByte();
+            String profileId = input.readUTF();
+
+            Entry old;
+            if (type == TYPE_PUT)
+            {
+                String hasherId = input.readUTF();
+                int cost = input.readInt();
+                byte[] salt = new byte[input.readUnsignedShort()];
+                input.readFully(salt);
+                byte[] hash = new byte[input.readUnsignedShort()];
+                input.readFully(hash);
+
+                old = _index.put(profileId, new Entry(new PinRecord(hasherId, cost, salt, hash), entryLength));
+                _liveLength += entryLength;
+            }
+            else if (type == TYPE_REMOVE)
+            {
+                old = _index.remove(profileId);
+            }
+            else
+            {
+                return false;
+            }
+
+            if (old != null)
+            {
+                _liveLength -= old._length;
+            }
+            return true;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    private static void writeHeader(DataOutputStream output) throws IOException
+    {
+        output.writeInt(MAGIC);
+        output.writeInt(FORMAT_VERSION);
+    }
+
+    private static byte[] encodePut(String profileId, PinRecord record)
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(body);
+        try
+        {
+            output.writeByte(TYPE_PUT);
+            output.writeUTF(profileId);
+            output.writeUTF(record.getHasherId());
+            output.writeInt(record.getCost());
+            output.writeShort(record.getSalt().length);
+            output.write(record.getSalt());
+            output.writeShort(record.getHash().length);
+            output.write(record.getHash());
+        }
+        catch (IOException e)
+        {
+            // Not thrown by an in-memory stream with the lengths checked
+            throw new IllegalStateException(e);
+        }
+        return frame(body.toByteArray());
+    }
+
+    private static byte[] encodeRemove(String profileId)
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(body);
+        try
+        {
+            output.writeByte(TYPE_REMOVE);
+            output.writeUTF(profileId);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return frame(body.toByteArray());
+    }
+
+    private static byte[] frame(byte[] body)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(body.length + FRAME_LENGTH);
+        DataOutputStream output = new DataOutputStream(entry);
+        try
+        {
+            output.writeInt(body.length);
+            output.write(body);
+            output.writeInt((int) crc.getValue());
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        return entry.toByteArray();
+    }
+
+    private static class Entry
+    {
+        private final PinRecord _record;
+        // Size of the entry on disk
+        private int _length;
+
+        public Entry(PinRecord record, int length)
+        {
+            _record = record;
+            _length = length;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.ameaney.pinhandler;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The resolved look of a PinView: digit sizes in pixels and colours.
+ *
+ * Styles read from attributes are cached per theme, display density and attribute values, so
+ * PinViews that share a style only resolve it once. Use {@link Builder} to make one up front and
+ * skip attribute resolution altogether.
+ */
+public final class PinStyle
+{
+    // Theme -> attribute key -> style. Themes are weakly held so a finished Activity's styles go with it.
+    private static final Map<Resources.Theme, Map<String, PinStyle>> _cache = new WeakHashMap<Resources.Theme, Map<String, PinStyle>>();
+
+    private final int _digitWidth;
+    private final int _digitHeight;
+    private final int _digitSpacing;
+    private final int _digitTextSize;
+    private final int _digitElevation;
+    private final int _digitBackgroundColor;
+    private final int _digitBorderColor;
+    private final int _digitAccentColor;
+    private final int _digitTextColor;
+    private final int _accentHeight;
+
+    private PinStyle(Builder builder)
+    {
+        _digitWidth = builder._digitWidth;
+        _digitHeight = builder._digitHeight;
+        _digitSpacing = builder._digitSpacing;
+        _digitTextSize = builder._digitTextSize;
+        _digitElevation = builder._digitElevation;
+        _digitBackgroundColor = builder._digitBackgroundColor;
+        _digitBorderColor = builder._digitBorderColor;
+        _digitAccentColor = builder._digitAccentColor;
+        _digitTextColor = builder._digitTextColor;
+        _accentHeight = builder._accentHeight;
+    }
+
+    /**
+     * Returns the style for the given attributes, resolving it against the context's theme the
+     * first time it's asked for.
+     */
+    public static PinStyle obtain(Context context, AttributeSet attributeSet)
+    {
+        Resources.Theme theme = context.getTheme();
+        String key = getKey(context.getResources().getDisplayMetrics(), attributeSet);
+
+        synchronized (_cache)
+        {
+            Map<String, PinStyle> styles = _cache.get(theme);
+            PinStyle style = styles == null ? null : styles.get(key);
+            if (style != null)
+            {
+                return style;
+            }
+        }
+
+        PinStyle style = resolve(context, attributeSet);
+
+        synchronized (_cache)
+        {
+            Map<String, PinStyle> styles = _cache.get(theme);
+            if (styles == null)
+            {
+                styles = new HashMap<String, PinStyle>();
+                _cache.put(theme, styles);
+            }
+            styles.put(key, style);
+        }
+        return style;
+    }
+
+    /**
+     * Drops every cached style, e.g. after changing a theme in place with applyStyle().
+     */
+    public static void clearCache()
+    {
+        synchronized (_cache)
+        {
+            _cache.clear();
+        }
+    }
+
+    private static String getKey(DisplayMetrics metrics, AttributeSet attributeSet)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(metrics.density).append('/').append(metrics.scaledDensity);
+
+        if (attributeSet == null)
+        {
+            return key.toString();
+        }
+
+        key.append('/').append(attributeSet.getStyleAttribute());
+
+        // Only the attributes that end up in the style; numDigits and the like don't change it
+        for (int i = 0; i < attributeSet.getAttributeCount(); i++)
+        {
+            int name = attributeSet.getAttributeNameResource(i);
+            if (name != 0 && contains(R.styleable.PinView, name) && !contains(R.styleable.PinViewInstance, name))
+            {
+                key.append('/').append(name).append('=').append(attributeSet.getAttributeValue(i));
+            }
+        }
+        return key.toString();
+    }
+
+    private static boolean contains(int[] array, int value)
+    {
+        for (int i = 0; i < array.length; i++)
+        {
+            if (array[i] == value)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PinStyle resolve(Context context, AttributeSet attributeSet)
+    {
+        Builder defaults = new Builder(context);
+
+        TypedArray array = context.obtainStyledAttributes(attributeSet, R.styleable.PinView);
+        try
+        {
+            return defaults
+                    .setDigitWidth(array.getDimensionPixelSize(R.styleable.PinView_digitWidth, defaults._digitWidth))
+                    .setDigitHeight(array.getDimensionPixelSize(R.styleable.PinView_digitHeight, defaults._digitHeight))
+                    .setDigitSpacing(array.getDimensionPixelSize(R.styleable.PinView_digitSpacing, defaults._digitSpacing))
+                    .setDigitTextSize(array.getDimensionPixelSize(R.styleable.PinView_digitTextSize, defaults._digitTextSize))
+                    .setDigitElevation(array.getDimensionPixelSize(R.styleable.PinView_digitElevation, defaults._digitElevation))
+                    .setDigitBorderColor(array.getColor(R.styleable.PinView_digitBorderColor, defaults._digitBorderColor))
+                    .setDigitTextColor(array.getColor(R.styleable.PinView_digitTextColor, defaults._digitTextColor))
+                    .setDigitBackgroundColor(array.getColor(R.styleable.PinView_digitBackgroundColor, defaults._digitBackgroundColor))
+                    .setDigitAccentColor(array.getColor(R.styleable.PinView_digitAccentColor, defaults._digitAccentColor))
+                    .setAccentHeight(array.getDimensionPixelSize(R.styleable.PinView_accentHeight, defaults._accentHeight))
+                    .build();
+        }
+        finally
+        {
+            array.recycle();
+        }
+    }
+
+    public int getDigitWidth()
+    {
+        return _digitWidth;
+    }
+
+    public int getDigitHeight()
+    {
+        return _digitHeight;
+    }
+
+    public int getDigitSpacing()
+    {
+        return _digitSpacing;
+    }
+
+    public int getDigitTextSize()
+    {
+        return _digitTextSize;
+    }
+
+    public int getDigitElevation()
+    {
+        return _digitElevation;
+    }
+
+    public int getDigitBackgroundColor()
+    {
+        return _digitBackgroundColor;
+    }
+
+    public int getDigitBorderColor()
+    {
+        return _digitBorderColor;
+    }
+
+    public int getDigitAccentColor()
+    {
+        return _digitAccentColor;
+    }
+
+    public int getDigitTextColor()
+    {
+        return _digitTextColor;
+    }
+
+    public int getAccentHeight()
+    {
+        return _accentHeight;
+    }
+
+    /**
+     * Builds a PinStyle in code. Sizes are in pixels; anything not set keeps the PinView default,
+     * with colours taken from the context's theme.
+     */
+    public static class Builder
+    {
+        private int _digitWidth;
+        private int _digitHeight;
+        private int _digitSpacing;
+        private int _digitTextSize;
+        private int _digitElevation;
+        private int _digitBackgroundColor;
+        private int _digitBorderColor;
+        private int _digitAccentColor;
+        private int _digitTextColor;
+        private int _accentHeight;
+
+        public Builder(Context context)
+        {
+            DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+
+            _digitWidth = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, PinView.Defaults.DIGIT_WIDTH, metrics);
+            _digitHeight = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, PinView.Defaults.DIGIT_HEIGHT, metrics);
+            _digitSpacing = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, PinView.Defaults.DIGIT_SPACING, metrics);
+            _digitTextSize = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, PinView.Defaults.DIGIT_TEXT_SIZE, metrics);
+            _accentHeight = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, PinView.Defaults.ACCENT_HEIGHT, metrics);
+
+            _digitBorderColor = PinView.Defaults.DIGIT_BORDER_COLOR;
+
+            Resources.Theme theme = context.getTheme();
+            TypedValue resolvedColor = new TypedValue();
+            _digitTextColor = resolveColor(context, theme, android.R.attr.textColorPrimary, resolvedColor);
+            _digitBackgroundColor = resolveColor(context, theme, android.R.attr.windowBackground, resolvedColor);
+            _digitAccentColor = resolveColor(context, theme, android.R.attr.colorAccent, resolvedColor);
+        }
+
+        public Builder(PinStyle style)
+        {
+            _digitWidth = style._digitWidth;
+            _digitHeight = style._digitHeight;
+            _digitSpacing = style._digitSpacing;
+            _digitTextSize = style._digitTextSize;
+            _digitElevation = style._digitElevation;
+            _digitBackgroundColor = style._digitBackgroundColor;
+            _digitBorderColor = style._digitBorderColor;
+            _digitAccentColor = style._digitAccentColor;
+            _digitTextColor = style._digitTextColor;
+            _accentHeight = style._accentHeight;
+        }
+
+        private static int resolveColor(Context context, Resources.Theme theme, int attribute, TypedValue resolvedColor)
+        {
+            theme.resolveAttribute(attribute, resolvedColor, true);
+            return resolvedColor.resourceId > 0 ? context.getResources().getColor(resolvedColor.resourceId) : resolvedColor.data;
+        }
+
+        public Builder setDigitWidth(int digitWidth)
+        {
+            _digitWidth = digitWidth;
+            return this;
+        }
+
+        public Builder setDigitHeight(int digitHeight)
+        {
+            _digitHeight = digitHeight;
+            return this;
+        }
+
+        public Builder setDigitSpacing(int digitSpacing)
+        {
+            _digitSpacing = digitSpacing;
+            return this;
+        }
+
+        public Builder setDigitTextSize(int digitTextSize)
+        {
+            _digitTextSize = digitTextSize;
+            return this;
+        }
+
+        public Builder setDigitElevation(int digitElevation)
+        {
+            _digitElevation = digitElevation;
+            return this;
+        }
+
+        public Builder setDigitBackgroundColor(int digitBackgroundColor)
+        {
+            _digitBackgroundColor = digitBackgroundColor;
+            return this;
+        }
+
+        public Builder setDigitBorderColor(int digitBorderColor)
+        {
+            _digitBorderColor = digitBorderColor;
+            return this;
+        }
+
+        public Builder setDigitAccentColor(int digitAccentColor)
+        {
+            _digitAccentColor = digitAccentColor;
+            return this;
+        }
+
+        public Builder setDigitTextColor(int digitTextColor)
+        {
+            _digitTextColor = digitTextColor;
+            return this;
+        }
+
+        public Builder setAccentHeight(int accentHeight)
+        {
+            _accentHeight = accentHeight;
+            return this;
+        }
+
+        public PinStyle build()
+        {
+            return new PinStyle(this);
+        }
+    }
+}
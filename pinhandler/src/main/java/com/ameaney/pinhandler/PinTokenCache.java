@@ -0,0 +1,86 @@
+package com.ameaney.pinhandler;
+
+/**
+ * Holds the stored pin token in memory so repeat lookups are a single volatile read.
+ *
+ * The token is loaded lazily and dropped whenever the backend reports a change to it. Loads and updates take a
+ * lock; reads of an already loaded token never do.
+ */
+class PinTokenCache implements PinStorageBackend.Listener
+{
+    private final String _key;
+
+    // Null until loaded
+    private volatile String _token;
+    private int _generation;
+    private boolean _listening;
+
+    public PinTokenCache(String key)
+    {
+        _key = key;
+    }
+
+    /**
+     * @return the cached token, or null if it has to be loaded first
+     */
+    public String get()
+    {
+        return _token;
+    }
+
+    public String load(PinStorageBackend backend)
+    {
+        int generation;
+        synchronized (this)
+        {
+            if (_token != null)
+            {
+                return _token;
+            }
+
+            if (!_listening)
+            {
+                backend.addListener(this);
+                _listening = true;
+            }
+            generation = _generation;
+        }
+
+        String token = backend.get(_key);
+        if (token == null)
+        {
+            token = "";
+        }
+
+        synchronized (this)
+        {
+            // Don't cache a value that was changed while it was being read
+            if (generation == _generation)
+            {
+                _token = token;
+            }
+        }
+        return token;
+    }
+
+    public synchronized void put(String token)
+    {
+        _generation++;
+        _token = token;
+    }
+
+    public synchronized void invalidate()
+    {
+        _generation++;
+        _token = null;
+    }
+
+    @Override
+    public void onChanged(String key)
+    {
+        if (_key.equals(key))
+        {
+            invalidate();
+        }
+    }
+}
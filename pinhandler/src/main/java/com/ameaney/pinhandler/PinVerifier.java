@@ -0,0 +1,260 @@
+package com.ameaney.pinhandler;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Checks each pin finished in a {@link PinView} against a {@link PinStorage}, away from the UI
+ * thread.
+ *
+ * When the last digit is entered the view's input is locked, the pin is confirmed on the storage's
+ * executor (or the one given), and the result comes back to the {@link Listener} on the main
+ * thread, after which input is unlocked. If a different pin is submitted while one is still being
+ * checked, the earlier check is cancelled and its result dropped; the same pin again is ignored.
+ *
+ * If the view has a {@link SpeculativePinVerifier}, its candidates are used for the check.
+ */
+public class PinVerifier
+{
+    public interface Listener
+    {
+        void onSuccess();
+
+        void onFailure();
+
+        /**
+         * The pin couldn't be checked, e.g. the stored record was unreadable.
+         */
+        void onError(Exception e);
+    }
+
+    private final PinView _pinView;
+    private final PinStorage _storage;
+    private final Context _context;
+    private final Executor _executor;
+
+    private Listener _listener;
+    private boolean _clearOnFailure = true;
+
+    // Main thread only
+    private Check _pending;
+
+    public PinVerifier(PinView pinView, PinStorage storage)
+    {
+        this(pinView, storage, null);
+    }
+
+    /**
+     * @param executor runs the checks, or null for the storage's own executor
+     */
+    public PinVerifier(PinView pinView, PinStorage storage, Executor executor)
+    {
+        _pinView = pinView;
+        _storage = storage;
+        _context = PinStorage.getApplicationContext(pinView.getContext());
+        _executor = executor;
+
+        pinView.setPinVerifier(this);
+    }
+
+    public void setListener(Listener listener)
+    {
+        _listener = listener;
+    }
+
+    /**
+     * Whether a wrong pin is cleared from the view, in one update, before the listener is called.
+     * On by default.
+     */
+    public void setClearOnFailure(boolean clearOnFailure)
+    {
+        _clearOnFailure = clearOnFailure;
+    }
+
+    public boolean isVerifying()
+    {
+        return _pending != null;
+    }
+
+    /**
+     * Stops the check in progress, if any, without calling the listener, and unlocks the view.
+     */
+    public void cancel()
+    {
+        if (_pending != null)
+        {
+            _pending.cancel();
+            _pending = null;
+            _pinView.setInputLocked(false);
+        }
+    }
+
+    /**
+     * Cancels any check and stops verifying the view's pins.
+     */
+    public void detach()
+    {
+        cancel();
+        _pinView.setPinVerifier(null);
+    }
+
+    /**
+     * Called by the view on the main thread when a pin is finished. The array isn't kept.
+     */
+    void submit(char[] digits, int length, SpeculativePinVerifier speculativeVerifier)
+    {
+        if (_pending != null)
+        {
+            if (_pending.matches(digits, length))
+            {
+                return;
+            }
+            _pending.cancel();
+        }
+
+        Check check = new Check(Arrays.copyOf(digits, length), speculativeVerifier);
+        _pending = check;
+        _pinView.setInputLocked(true);
+
+        if (_executor != null)
+        {
+            _executor.execute(check._task);
+        }
+        else
+        {
+            _storage.read(check._task);
+        }
+    }
+
+    private void onDone(Check check)
+    {
+        if (check != _pending)
+        {
+            // Cancelled or replaced since
+            return;
+        }
+        _pending = null;
+        _pinView.setInputLocked(false);
+        Arrays.fill(check._pin, '\0');
+
+        boolean result;
+        try
+        {
+            result = check._task.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error)
+            {
+                throw (Error) cause;
+            }
+            if (_listener != null)
+            {
+                _listener.onError((Exception) cause);
+            }
+            return;
+        }
+
+        if (result)
+        {
+            if (_listener != null)
+            {
+                _listener.onSuccess();
+            }
+            return;
+        }
+
+        if (_clearOnFailure)
+        {
+            _pinView.clear();
+        }
+        _pinView.shake();
+        if (_listener != null)
+        {
+            _listener.onFailure();
+        }
+    }
+
+    private class Check implements Callable<Boolean>
+    {
+        private final char[] _pin;
+        private final SpeculativePinVerifier _speculativeVerifier;
+        private final FutureTask<Boolean> _task;
+
+        Check(char[] pin, SpeculativePinVerifier speculativeVerifier)
+        {
+            _pin = pin;
+            _speculativeVerifier = speculativeVerifier;
+            _task = new FutureTask<Boolean>(this)
+            {
+                @Override
+                protected void done()
+                {
+                    if (!isCancelled())
+                    {
+                        PinStorage.getMainHandler().post(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                onDone(Check.this);
+                            }
+                        });
+                    }
+                }
+            };
+        }
+
+        @Override
+        public Boolean call()
+        {
+            char[] pin = _pin.clone();
+            try
+            {
+                if (_speculativeVerifier != null)
+                {
+                    return _speculativeVerifier.confirm(pin);
+                }
+                return _storage.confirmPin(_context, pin);
+            }
+            finally
+            {
+                Arrays.fill(pin, '\0');
+            }
+        }
+
+        boolean matches(char[] digits, int length)
+        {
+            if (length != _pin.length)
+            {
+                return false;
+            }
+            for (int i = 0; i < length; i++)
+            {
+                if (digits[i] != _pin[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void cancel()
+        {
+            // A check that's already running finishes, but its result is dropped
+            _task.cancel(false);
+            Arrays.fill(_pin, '\0');
+        }
+    }
+}
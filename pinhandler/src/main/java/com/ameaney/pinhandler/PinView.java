@@ -4,39 +4,56 @@ import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Point;
-import android.graphics.drawable.ColorDrawable;
+import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
-import android.graphics.drawable.LayerDrawable;
-import android.graphics.drawable.StateListDrawable;
 import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.text.Editable;
 import android.text.InputFilter;
 import android.text.InputType;
+import android.text.Spanned;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
-import android.util.DisplayMetrics;
-import android.util.Pair;
 import android.util.TypedValue;
-import android.view.GestureDetector;
 import android.view.Gravity;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.Choreographer;
+import android.view.ViewConfiguration;
+import android.view.ViewTreeObserver;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.EditText;
+import android.widget.FrameLayout;
 import android.widget.HorizontalScrollView;
 import android.widget.LinearLayout;
-import android.widget.TextView;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class PinView extends HorizontalScrollView
 {
+    public static final int RENDER_MODE_VIEWS = 0;
+    public static final int RENDER_MODE_CANVAS = 1;
+    public static final int RENDER_MODE_AUTO = 2;
+
+    // Animation flags, combined for the animations attribute. The slide and scale only apply in
+    // views render mode; the shake works in both.
+    public static final int ANIMATE_ACCENT_SLIDE = 1;
+    public static final int ANIMATE_SCALE = 2;
+    public static final int ANIMATE_SHAKE = 4;
+
     public static class Defaults
     {
         public static final int NUM_DIGITS = 4;
@@ -47,14 +64,34 @@ public class PinView extends HorizontalScrollView
         public static final int DIGIT_BORDER_COLOR = Color.TRANSPARENT;
 
         public static final int ACCENT_HEIGHT = 5;
+
+        public static final int RENDER_MODE = RENDER_MODE_AUTO;
+
+        // Auto render mode switches to canvas above this many digits
+        public static final int CANVAS_THRESHOLD = 16;
+
+        public static final int ANIMATION_DURATION = 150;
+        public static final float SELECTED_SCALE = 1.1f;
+        public static final int SHAKE_DISTANCE = 8;
     }
 
+    // Suffix of the binders generated by pinhandler-compiler, appended to the target class name
+    private static final String BINDER_SUFFIX = "$$PinFinishedBinder";
+
+    // Binder for each class looked up so far, null for classes without one
+    private static final Map<Class<?>, PinFinishedBinder<?>> _binders = new HashMap<Class<?>, PinFinishedBinder<?>>();
+    private static final int BORDER_INSET = 5;
+
+    // Shake offsets as fractions of the shake distance, one animation step each
+    private static final float[] SHAKE_OFFSETS = { 1f, -1f, 0.5f, -0.5f, 0f };
+
     private int _numDigits;
+    private PinStyle _style;
     private int _digitHeight;
     private int _digitWidth;
     private int _digitSpacing;
     private int _digitTextSize;
-    private int _digitElevation = 0;
+    private int _digitElevation;
 
     private int _digitBackgroundColor;
     private int _digitBorderColor;
@@ -62,12 +99,125 @@ public class PinView extends HorizontalScrollView
     private int _digitTextColor;
     private int _accentHeight;
 
+    private int _renderMode;
+    private boolean _canvasMode;
+
+    // Entered digits
+    private char[] _digits;
+    private int _length;
+
+    // What's currently shown; brought up to date with the entered digits once per frame
+    private int _filledLength;
+    private int _selectedIndex = -1;
+    private int _pendingSelection = -1;
+    private int _shownRevealedIndex = -1;
+    private boolean _scrollPending;
+    private boolean _frameScheduled;
+
+    private final Choreographer.FrameCallback _frameCallback = new Choreographer.FrameCallback()
+    {
+        @Override
+        public void doFrame(long frameTimeNanos)
+        {
+            _frameScheduled = false;
+            applyPendingUpdates();
+        }
+    };
+
+    private PinGlyphCache.Glyphs _glyphs;
+
+    // Showing the last entered digit for a moment before masking it
+    private int _revealDuration;
+    private int _revealedIndex = -1;
+    private long _revealUntil;
+    private boolean _revealPosted;
+
+    private final Runnable _hideReveal = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            // One pending post for however many digits are typed; it moves itself back if need be
+            long remaining = _revealUntil - SystemClock.uptimeMillis();
+            if (remaining > 0)
+            {
+                postDelayed(this, remaining);
+                return;
+            }
+
+            _revealPosted = false;
+            _revealedIndex = -1;
+            scheduleUpdate();
+        }
+    };
+
+    // Selection and error animations. They only touch transform and alpha properties, animated
+    // with a hardware layer, so each frame is a property update rather than a redraw.
+    private int _animations;
+    private int _animationDuration;
+    private float _selectedScale;
+    private int _shakeDistance;
+    private View _accentBar;
+    private int _shakeStep = -1;
+    private float _shakeOrigin;
+
+    private final Runnable _shakeStepRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            _shakeStep++;
+            if (_shakeStep == SHAKE_OFFSETS.length)
+            {
+                _shakeStep = -1;
+                return;
+            }
+
+            // The whole view moves rather than the row of digits, so the layer is never wider than the
+            // screen; in canvas mode the row can be far wider than the largest possible texture
+            animate()
+                    .translationX(_shakeOrigin + SHAKE_OFFSETS[_shakeStep] * _shakeDistance)
+                    .setDuration(_animationDuration / SHAKE_OFFSETS.length)
+                    .withLayer()
+                    .withEndAction(this);
+        }
+    };
+
+    // Canvas mode only
+    private DigitStrip _digitStrip;
+    private Paint _digitPaint;
+
     private PinView _pinView;
+    private LinearLayout _layout;
+    // Created on attach
     private EditText _pinInputField;
+    private boolean _attached;
+    private boolean _softInputEnabled = true;
 
     private OnPinFinishedListener _pinFinishedListener;
+    private SpeculativePinVerifier _speculativeVerifier;
+    private PinVerifier _pinVerifier;
+    private boolean _inputLocked;
+
+    private PinLatencyTracer _latencyTracer;
+    private final ViewTreeObserver.OnDrawListener _drawListener = new ViewTreeObserver.OnDrawListener()
+    {
+        @Override
+        public void onDraw()
+        {
+            if (_latencyTracer != null)
+            {
+                _latencyTracer.onDraw();
+            }
+        }
+    };
+
+    // Set while a bulk update edits the input field, so the watcher leaves it alone
+    private boolean _bulkUpdate;
+    private final char[] _appendChar = new char[1];
+    private final CharBuffer _appendBuffer = CharBuffer.wrap(_appendChar);
 
-    private Position _point;
+    private TapDetector _tapDetector;
 
     public PinView(Context context)
     {
@@ -83,48 +233,90 @@ public class PinView extends HorizontalScrollView
     {
         super(context, attributeSet, defStyle);
 
-        this.setFillViewport(true);
-
-        _pinView = this;
+        init(context);
 
-        TypedArray array = context.obtainStyledAttributes(attributeSet, R.styleable.PinView);
+        TypedArray array = context.obtainStyledAttributes(attributeSet, R.styleable.PinViewInstance);
 
         // Number of digits
-        _numDigits = array.getInt(R.styleable.PinView_numDigits, Defaults.NUM_DIGITS);
+        _numDigits = array.getInt(R.styleable.PinViewInstance_numDigits, Defaults.NUM_DIGITS);
+
+        _renderMode = array.getInt(R.styleable.PinViewInstance_renderMode, Defaults.RENDER_MODE);
 
         // onPinFinishedListener
-        setPinListener(array.getString(R.styleable.PinView_onPinFinished));
+        setPinListener(array.getString(R.styleable.PinViewInstance_onPinFinished));
+
+        _softInputEnabled = array.getBoolean(R.styleable.PinViewInstance_softInputEnabled, true);
+        _revealDuration = array.getInt(R.styleable.PinViewInstance_revealDuration, 0);
+
+        _animations = array.getInt(R.styleable.PinViewInstance_animations, 0);
+        _animationDuration = array.getInt(R.styleable.PinViewInstance_animationDuration, Defaults.ANIMATION_DURATION);
+        _selectedScale = array.getFloat(R.styleable.PinViewInstance_selectedScale, Defaults.SELECTED_SCALE);
+        _shakeDistance = array.getDimensionPixelSize(R.styleable.PinViewInstance_shakeDistance, getDefaultShakeDistance(context));
+        array.recycle();
+
+        // Sizes and colours, shared with other PinViews using the same style
+        applyStyle(PinStyle.obtain(context, attributeSet));
 
-        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        getViews();
+    }
 
-        // Digit dimensions
-        _digitWidth = array.getDimensionPixelSize(R.styleable.PinView_digitWidth, (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Defaults.DIGIT_WIDTH, metrics));
-        _digitHeight = array.getDimensionPixelSize(R.styleable.PinView_digitHeight, (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Defaults.DIGIT_HEIGHT, metrics));
-        _digitSpacing = array.getDimensionPixelSize(R.styleable.PinView_digitSpacing, (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Defaults.DIGIT_SPACING, metrics));
-        _digitTextSize = array.getDimensionPixelSize(R.styleable.PinView_digitTextSize, (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, Defaults.DIGIT_TEXT_SIZE, metrics));
+    private PinView(Builder builder)
+    {
+        super(builder._context);
 
-        _digitBorderColor = array.getColor(R.styleable.PinView_digitBorderColor, Defaults.DIGIT_BORDER_COLOR);
+        init(builder._context);
 
-        Resources.Theme theme = context.getTheme();
+        _numDigits = builder._numDigits;
+        _renderMode = builder._renderMode;
+        _pinFinishedListener = builder._pinFinishedListener;
+        _revealDuration = builder._revealDuration;
+        _animations = builder._animations;
+        _animationDuration = builder._animationDuration;
+        _selectedScale = builder._selectedScale;
+        _shakeDistance = builder._shakeDistance >= 0 ? builder._shakeDistance : getDefaultShakeDistance(builder._context);
+        applyStyle(builder._style != null ? builder._style : PinStyle.obtain(builder._context, null));
 
-        TypedValue resolvedColor = new TypedValue();
+        getViews();
+    }
 
-        theme.resolveAttribute(android.R.attr.textColorPrimary, resolvedColor, true);
-        _digitTextColor = array.getColor((R.styleable.PinView_digitTextColor),
-                resolvedColor.resourceId > 0 ? getResources().getColor(resolvedColor.resourceId) : resolvedColor.data);
+    PinView(Context context, int numDigits, int renderMode)
+    {
+        this(new Builder(context).setNumDigits(numDigits).setRenderMode(renderMode));
+    }
 
-        theme.resolveAttribute(android.R.attr.windowBackground, resolvedColor, true);
-        _digitBackgroundColor = array.getColor((R.styleable.PinView_digitBackgroundColor),
-                resolvedColor.resourceId > 0 ? getResources().getColor(resolvedColor.resourceId) : resolvedColor.data);
+    private void init(Context context)
+    {
+        this.setFillViewport(true);
 
-        theme.resolveAttribute(android.R.attr.colorAccent, resolvedColor, true);
-        _digitAccentColor = array.getColor(R.styleable.PinView_digitAccentColor,
-                resolvedColor.resourceId > 0 ? getResources().getColor(resolvedColor.resourceId) : resolvedColor.data);
+        _pinView = this;
 
-        _accentHeight = array.getDimensionPixelSize(R.styleable.PinView_accentHeight, (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Defaults.ACCENT_HEIGHT, metrics));
-        array.recycle();
+        _tapDetector = new TapDetector(ViewConfiguration.get(context).getScaledTouchSlop());
+    }
 
-        getViews();
+    private static int getDefaultShakeDistance(Context context)
+    {
+        return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, Defaults.SHAKE_DISTANCE, context.getResources().getDisplayMetrics());
+    }
+
+    private void applyStyle(PinStyle style)
+    {
+        _style = style;
+        _digitWidth = style.getDigitWidth();
+        _digitHeight = style.getDigitHeight();
+        _digitSpacing = style.getDigitSpacing();
+        _digitTextSize = style.getDigitTextSize();
+        _digitElevation = style.getDigitElevation();
+        _digitBackgroundColor = style.getDigitBackgroundColor();
+        _digitBorderColor = style.getDigitBorderColor();
+        _digitAccentColor = style.getDigitAccentColor();
+        _digitTextColor = style.getDigitTextColor();
+        _accentHeight = style.getAccentHeight();
+        _glyphs = PinGlyphCache.getGlyphs(_digitTextSize, _digitTextColor);
+    }
+
+    public PinStyle getStyle()
+    {
+        return _style;
     }
 
     @Override
@@ -132,56 +324,50 @@ public class PinView extends HorizontalScrollView
     {
         if (event.getAction() == MotionEvent.ACTION_DOWN)
         {
-            _point = new Position(event.getX(), event.getY());
+            _tapDetector.onDown(event.getX(), event.getY());
         }
         else if (event.getAction() == MotionEvent.ACTION_UP)
         {
-            Position newPos = new Position(event.getX(), event.getY());
-
-            double dist = _point.getDisplacement(newPos);
-
-            if (dist < 30)
+            if (_tapDetector.onUp(event.getX(), event.getY()))
             {
                 // Make sure this view is focused
                 _pinInputField.requestFocus();
 
                 // Show keyboard
-                InputMethodManager inputMethodManager = (InputMethodManager) getContext()
-                        .getSystemService(Context.INPUT_METHOD_SERVICE);
-                inputMethodManager.showSoftInput(_pinInputField, 0);
+                if (_softInputEnabled)
+                {
+                    InputMethodManager inputMethodManager = (InputMethodManager) getContext()
+                            .getSystemService(Context.INPUT_METHOD_SERVICE);
+                    if (_latencyTracer != null)
+                    {
+                        _latencyTracer.onTap();
+                        inputMethodManager.showSoftInput(_pinInputField, 0, _latencyTracer.getImeReceiver());
+                    }
+                    else
+                    {
+                        inputMethodManager.showSoftInput(_pinInputField, 0);
+                    }
+                }
                 return true;
             }
         }
         else if (event.getAction() == MotionEvent.ACTION_MOVE)
         {
-            Position newPos = new Position(event.getX(), event.getY());
-            double dist = _point.getDisplacement(newPos);
-            if (dist > 30)
-            {
-                _point = new Position(-1, -1);
-            }
+            _tapDetector.onMove(event.getX(), event.getY());
+        }
+        else if (event.getAction() == MotionEvent.ACTION_CANCEL)
+        {
+            _tapDetector.cancel();
         }
         return super.onTouchEvent(event);
     }
 
     private Drawable getDrawable()
     {
-        ColorDrawable box = new ColorDrawable(_digitBorderColor);
-        ColorDrawable background = new ColorDrawable(_digitBackgroundColor);
-        ColorDrawable accent = new ColorDrawable(_digitAccentColor);
-
-        LayerDrawable selectedBackground = new LayerDrawable(new Drawable[] { box, accent, background });
-        selectedBackground.setLayerInset(1, 5, 5, 5, 5);
-        selectedBackground.setLayerInset(2, 5, 5, 5, 5 + _accentHeight);
-
-        LayerDrawable defaultBackground = new LayerDrawable(new Drawable[] { box, background });
-        defaultBackground.setLayerInset(1, 5, 5, 5, 5);
-
-        StateListDrawable stateListDrawable = new StateListDrawable();
-        stateListDrawable.addState(new int[] { android.R.attr.state_selected }, selectedBackground);
-        stateListDrawable.addState(new int[] {}, defaultBackground);
-
-        return stateListDrawable;
+        // With the sliding accent bar the boxes themselves don't show one
+        int accentHeight = _accentBar != null ? 0 : _accentHeight;
+        return PinDrawableCache.getDrawable(getResources(), _digitBorderColor, _digitBackgroundColor,
+                _digitAccentColor, accentHeight, BORDER_INSET);
     }
 
     @TargetApi(23)
@@ -191,6 +377,16 @@ public class PinView extends HorizontalScrollView
 
         this.removeAllViews();
 
+        _digits = new char[_numDigits];
+        _length = 0;
+        _filledLength = 0;
+        _selectedIndex = -1;
+        _pendingSelection = -1;
+        _revealedIndex = -1;
+        _shownRevealedIndex = -1;
+
+        _canvasMode = isCanvasMode(_numDigits);
+
         LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT);
         layoutParams.gravity = Gravity.CENTER;
 
@@ -199,46 +395,143 @@ public class PinView extends HorizontalScrollView
         layout.setGravity(Gravity.CENTER);
         layout.setOrientation(LinearLayout.HORIZONTAL);
 
-        addView(layout);
+        _layout = layout;
+        _accentBar = null;
+
+        if ((_animations & ANIMATE_ACCENT_SLIDE) != 0)
+        {
+            // The accent is a separate bar over the digits that slides to the selected one
+            FrameLayout container = new FrameLayout(context);
+            container.setLayoutParams(layoutParams);
+            layout.setLayoutParams(new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+            container.addView(layout);
+
+            _accentBar = new View(context);
+            _accentBar.setLayoutParams(new FrameLayout.LayoutParams(_digitWidth - 2 * BORDER_INSET, _accentHeight));
+            _accentBar.setBackgroundColor(_digitAccentColor);
+            _accentBar.setAlpha(0);
+            container.addView(_accentBar);
+
+            layout.addOnLayoutChangeListener(new OnLayoutChangeListener()
+            {
+                @Override
+                public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                           int oldLeft, int oldTop, int oldRight, int oldBottom)
+                {
+                    moveAccentBar(false);
+                }
+            });
+
+            addView(container);
+        }
+        else
+        {
+            addView(layout);
+        }
+
+        _digitStrip = null;
+        addDigits(0, _numDigits);
+
+        // The input field needs the UI thread, so it waits for the view to be attached
+        _pinInputField = null;
+        if (_attached)
+        {
+            createInputField();
+        }
+    }
+
+    private boolean isCanvasMode(int numDigits)
+    {
+        return _renderMode == RENDER_MODE_CANVAS
+                || (_renderMode == RENDER_MODE_AUTO && numDigits > Defaults.CANVAS_THRESHOLD);
+    }
+
+    /**
+     * Adds the views for digits {@code start} to {@code end}, in front of anything already there.
+     * In canvas mode that's the one strip for all of them.
+     */
+    private void addDigits(int start, int end)
+    {
+        Context context = getContext();
+
+        if (_canvasMode)
+        {
+            if (_digitStrip != null)
+            {
+                _digitStrip.requestLayout();
+                _digitStrip.invalidate();
+                return;
+            }
+
+            // Draw every digit onto a single view instead of one view per digit
+            LinearLayout.LayoutParams stripParams = new LinearLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+            stripParams.gravity = Gravity.CENTER;
+
+            _digitPaint = new Paint();
+            _digitPaint.setStyle(Paint.Style.FILL);
 
-        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
-        params.setMargins(_digitSpacing / 2, 0, _digitSpacing / 2, 0);
-        params.gravity = Gravity.CENTER;
+            _digitStrip = new DigitStrip(context);
+            _digitStrip.setLayoutParams(stripParams);
+            _layout.addView(_digitStrip, 0);
+            return;
+        }
 
         // Add a digit view for each digit
-        for (int i = 0; i < _numDigits; i++)
+        for (int i = start; i < end; i++)
         {
-            TextView digitView = new DigitView(context);
-            digitView.setLayoutParams(params);
-            digitView.setWidth(_digitWidth);
-            digitView.setHeight(_digitHeight);
+            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(LayoutParams.WRAP_CONTENT, LayoutParams.WRAP_CONTENT);
+            params.setMargins(_digitSpacing / 2, 0, _digitSpacing / 2, 0);
+            params.gravity = Gravity.CENTER;
 
+            DigitView digitView = new DigitView(context);
+            digitView.setLayoutParams(params);
             digitView.setBackground(getDrawable());
 
-            digitView.setTextColor(_digitTextColor);
-            digitView.setTextSize(_digitTextSize);
-            digitView.setGravity(Gravity.CENTER);
-
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
             {
                 digitView.setElevation(_digitElevation);
             }
 
-            layout.addView(digitView);
+            _layout.addView(digitView, i);
+        }
+    }
+
+    private void removeDigits(int start, int end)
+    {
+        if (_canvasMode)
+        {
+            if (start == 0)
+            {
+                _layout.removeView(_digitStrip);
+                _digitStrip = null;
+                _digitPaint = null;
+            }
+            else
+            {
+                _digitStrip.requestLayout();
+                _digitStrip.invalidate();
+            }
+            return;
         }
 
+        _layout.removeViews(start, end - start);
+    }
+
+    private void createInputField()
+    {
         Resources resources = getResources();
 
         // Add an "invisible" edit text to handle input
-        _pinInputField = new EditText(context);
+        _pinInputField = new EditText(getContext());
         _pinInputField.setTextSize(0);
         _pinInputField.setBackgroundColor(resources.getColor(android.R.color.transparent));
         _pinInputField.setTextColor(resources.getColor(android.R.color.transparent));
         _pinInputField.setCursorVisible(false);
-        _pinInputField.setFilters(new InputFilter[] {new InputFilter.LengthFilter(_numDigits)});
+        _pinInputField.setFilters(getInputFilters());
         _pinInputField.setInputType(InputType.TYPE_CLASS_NUMBER);
         _pinInputField.setImeOptions(EditorInfo.IME_FLAG_NO_EXTRACT_UI);
         _pinInputField.setMovementMethod(null);
+        applySoftInputEnabled();
         _pinInputField.setOnFocusChangeListener(new OnFocusChangeListener()
         {
             @Override
@@ -246,22 +539,8 @@ public class PinView extends HorizontalScrollView
             {
                 // Update the selected state of the views
                 int length = _pinInputField.getText().length();
-                LinearLayout linearLayout = (LinearLayout) getChildAt(0);
-
-                for (int i = 0; i < _numDigits; i++)
-                {
-                    View view = linearLayout.getChildAt(i);
-                    if (view == null)
-                    {
-                        break;
-                    }
-                    view.setSelected(hasFocus && length == i);
-
-                    if (view.isSelected())
-                    {
-                        centerSelectedDigit();
-                    }
-                }
+                _pendingSelection = hasFocus && length < _numDigits ? length : -1;
+                scheduleUpdate();
 
                 // Make sure the cursor is at the end
                 _pinInputField.setSelection(length);
@@ -273,206 +552,1232 @@ public class PinView extends HorizontalScrollView
                 //                }
             }
         });
+
+        // Digits entered before the field existed
+        _pinInputField.setText(_digits, 0, _length);
+        _pinInputField.setSelection(_length);
+
         _pinInputField.addTextChangedListener(new PinWatcher());
-        layout.addView(_pinInputField);
+        _layout.addView(_pinInputField);
     }
 
     public String getPin()
     {
-        return _pinInputField.getText().toString();
+        return new String(_digits, 0, _length);
     }
 
-    public void setOnPinFinishedListener(OnPinFinishedListener listener)
+    /**
+     * @return the entered pin as a new array, which the caller should clear once done with it
+     */
+    public char[] getPinChars()
     {
-        _pinFinishedListener = listener;
+        return Arrays.copyOf(_digits, _length);
     }
 
-    private void setPinListener(final String methodName) throws IllegalStateException
+    /**
+     * Replaces the entered pin, truncated to the number of digits. The digits are redrawn once and
+     * the OnPinFinishedListener is called at most once.
+     */
+    public void setPin(CharSequence pin)
     {
-        if (methodName == null || methodName.isEmpty())
-        {
-            return;
-        }
-
-        setOnPinFinishedListener(new OnPinFinishedListener()
-        {
-            private Method handler = null;
-            @Override
-            public void pinEntered(String pin)
-            {
-                if (handler == null)
-                {
-                    try
-                    {
-                        handler = getContext().getClass().getMethod(methodName, String.class);
-                    }
-                    catch (NoSuchMethodException e)
-                    {
-                        throw new IllegalStateException(e);
-                    }
-                }
-
-                try
-                {
-                    handler.invoke(getContext(), pin);
-                }
-                catch (IllegalAccessException e)
-                {
-                    throw new IllegalStateException(e);
-                }
-                catch (InvocationTargetException e)
-                {
-                    throw new IllegalStateException(e);
-                }
-            }
-        });
+        replacePin(0, _length, pin == null ? "" : pin);
     }
 
-    private void centerSelectedDigit()
+    public void clear()
     {
-        LinearLayout layout = (LinearLayout) getChildAt(0);
-        DigitView selected = null;
-        for (int i = 0; i < layout.getChildCount() - 1; i++)
-        {
-            selected = (DigitView) layout.getChildAt(i);
-            if (selected.isSelected())
-            {
-                break;
-            }
-            selected = null;
-        }
-
-        if (selected != null)
+        if (_length > 0)
         {
-            int width = getResources().getDisplayMetrics().widthPixels / 2;
-            _pinView.smoothScrollTo((int)selected.getX() - width, (int)selected.getY());
+            replacePin(0, _length, "");
         }
     }
 
-    @Override
-    protected Parcelable onSaveInstanceState()
+    public void append(char digit)
     {
-        Parcelable parcelable = super.onSaveInstanceState();
-        PinSavedState state = new PinSavedState(parcelable);
-        state.pin = _pinInputField.getText().toString();
-        return state;
+        if (_length < _numDigits)
+        {
+            _appendChar[0] = digit;
+            replacePin(_length, _length, _appendBuffer);
+        }
     }
 
-    @Override
-    protected void onRestoreInstanceState(Parcelable state)
+    public void deleteLast()
     {
-        PinSavedState pinState = (PinSavedState) state;
-        super.onRestoreInstanceState(pinState.getSuperState());
-        _pinInputField.setText(pinState.pin);
-        _pinInputField.setSelection(pinState.pin.length());
-        centerSelectedDigit();
+        if (_length > 0)
+        {
+            replacePin(_length - 1, _length, "");
+        }
     }
 
-    private class PinSavedState extends BaseSavedState
+    private void replacePin(int start, int end, CharSequence text)
     {
-        public String pin = "";
-
-        public final Parcelable.Creator<PinSavedState> CREATOR = new Parcelable.Creator<PinSavedState>()
+        if (_inputLocked)
         {
-            @Override
-            public PinSavedState createFromParcel(Parcel in) {
-                return new PinSavedState(in);
-            }
-
-            @Override
-            public PinSavedState[] newArray(int size) {
-                return new PinSavedState[size];
-            }
-        };
+            return;
+        }
 
-        public PinSavedState(Parcel source)
+        if (_pinInputField == null)
         {
-            super(source);
-            pin = source.readString();
+            // Not attached yet; edits only ever touch the end of the pin
+            int length = Math.min(start + text.length(), _numDigits);
+            TextUtils.getChars(text, 0, length - start, _digits, start);
+            onPinChanged(length);
+            return;
         }
 
-        public PinSavedState(Parcelable superState)
+        Editable editable = _pinInputField.getText();
+
+        _bulkUpdate = true;
+        try
         {
-            super(superState);
+            editable.replace(start, end, text);
         }
-
-        @Override
-        public void writeToParcel(Parcel out, int flags)
+        finally
         {
-            super.writeToParcel(out, flags);
-            out.writeString(pin);
+            _bulkUpdate = false;
         }
+
+        // Everything from the start of the edit may have moved
+        TextUtils.getChars(editable, start, editable.length(), _digits, start);
+        _pinInputField.setSelection(editable.length());
+        onPinChanged(editable.length());
     }
 
-    private class DigitView extends TextView
+    /**
+     * Sets whether tapping the view brings up the soft keyboard. Turn it off when digits come from
+     * a {@link PinKeypadView} or another source that calls {@link #append(char)} directly.
+     */
+    public void setSoftInputEnabled(boolean enabled)
     {
-        public DigitView(Context context)
+        _softInputEnabled = enabled;
+        if (_pinInputField != null)
         {
-            super(context);
+            applySoftInputEnabled();
         }
     }
 
-    private class PinWatcher implements TextWatcher
+    public boolean isSoftInputEnabled()
     {
-        public PinWatcher()
+        return _softInputEnabled;
+    }
+
+    @TargetApi(21)
+    private void applySoftInputEnabled()
+    {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
         {
-            super();
+            _pinInputField.setShowSoftInputOnFocus(_softInputEnabled);
         }
-
-        @Override
-        public void beforeTextChanged(CharSequence s, int start, int count, int after)
+        else
         {
-
+            // No way to keep the field focusable without a keyboard before Lollipop
+            _pinInputField.setInputType(_softInputEnabled ? InputType.TYPE_CLASS_NUMBER : InputType.TYPE_NULL);
         }
 
-        @Override
-        public void onTextChanged(CharSequence s, int start, int before, int count)
+        if (!_softInputEnabled)
         {
+            InputMethodManager inputMethodManager = (InputMethodManager) getContext()
+                    .getSystemService(Context.INPUT_METHOD_SERVICE);
+            inputMethodManager.hideSoftInputFromWindow(_pinInputField.getWindowToken(), 0);
+        }
+    }
 
+    /**
+     * Changes the number of digits, keeping the entered pin (cut short if it no longer fits), the
+     * focus and the keyboard connection. Only the digit views that are gained or lost are touched.
+     */
+    public void setNumDigits(int numDigits)
+    {
+        if (numDigits <= 0)
+        {
+            throw new IllegalArgumentException("numDigits must be positive");
+        }
+        if (numDigits == _numDigits)
+        {
+            return;
         }
 
-        @Override
-        public void afterTextChanged(Editable string)
+        // A check of a pin for the old length means nothing now; this also unlocks the input
+        if (_pinVerifier != null)
         {
-            int length = string.length();
-            LinearLayout layout = (LinearLayout) getChildAt(0);
+            _pinVerifier.cancel();
+        }
 
-            for (int i = 0; i < _numDigits; i++)
+        // Cut the pin down while the old length still applies, so it doesn't count as finished.
+        // This isn't user input, so it goes through even if the input is locked.
+        if (_length > numDigits)
+        {
+            boolean locked = _inputLocked;
+            _inputLocked = false;
+            try
             {
-                DigitView digit = (DigitView) layout.getChildAt(i);
-                if (string.length() > i)
-                {
-                    String mask = "•"; // Bullet
-                    digit.setText(mask);
-                }
-                else
+                replacePin(numDigits, _length, "");
+            }
+            finally
+            {
+                _inputLocked = locked;
+            }
+        }
+
+        int oldNumDigits = _numDigits;
+        boolean canvasMode = isCanvasMode(numDigits);
+
+        _numDigits = numDigits;
+        _length = Math.min(_length, numDigits);
+        _digits = Arrays.copyOf(_digits, numDigits);
+
+        if (canvasMode != _canvasMode)
+        {
+            removeDigits(0, oldNumDigits);
+            _canvasMode = canvasMode;
+            _filledLength = 0;
+            _selectedIndex = -1;
+            addDigits(0, numDigits);
+        }
+        else if (numDigits > oldNumDigits)
+        {
+            addDigits(oldNumDigits, numDigits);
+        }
+        else
+        {
+            removeDigits(numDigits, oldNumDigits);
+        }
+
+        _filledLength = Math.min(_filledLength, numDigits);
+        if (_selectedIndex >= numDigits)
+        {
+            _selectedIndex = -1;
+        }
+        if (_shownRevealedIndex >= numDigits)
+        {
+            _shownRevealedIndex = -1;
+        }
+        if (_pendingSelection >= numDigits)
+        {
+            _pendingSelection = -1;
+        }
+
+        if (_pinInputField != null)
+        {
+            _pinInputField.setFilters(getInputFilters());
+            if (_pinInputField.hasFocus())
+            {
+                _pendingSelection = _length < numDigits ? _length : -1;
+            }
+        }
+        if (_accentBar != null)
+        {
+            moveAccentBar(false);
+        }
+        _scrollPending = true;
+        scheduleUpdate();
+    }
+
+    public int getNumDigits()
+    {
+        return _numDigits;
+    }
+
+    /**
+     * Restyles the digits in place. Only what differs from the current style is updated.
+     */
+    public void setStyle(PinStyle style)
+    {
+        PinStyle old = _style;
+        if (style == old)
+        {
+            return;
+        }
+        applyStyle(style);
+
+        boolean resized = style.getDigitWidth() != old.getDigitWidth()
+                || style.getDigitHeight() != old.getDigitHeight()
+                || style.getDigitSpacing() != old.getDigitSpacing();
+        boolean recoloured = style.getDigitBackgroundColor() != old.getDigitBackgroundColor()
+                || style.getDigitBorderColor() != old.getDigitBorderColor()
+                || style.getDigitAccentColor() != old.getDigitAccentColor()
+                || style.getAccentHeight() != old.getAccentHeight();
+        boolean textChanged = style.getDigitTextColor() != old.getDigitTextColor()
+                || style.getDigitTextSize() != old.getDigitTextSize();
+
+        if (_canvasMode)
+        {
+            if (resized)
+            {
+                _digitStrip.requestLayout();
+            }
+            _digitStrip.invalidate();
+        }
+        else
+        {
+            for (int i = 0; i < _numDigits; i++)
+            {
+                restyleDigitView(getDigitView(i), old, resized, recoloured, textChanged);
+            }
+        }
+
+        if (_accentBar != null)
+        {
+            _accentBar.getLayoutParams().width = _digitWidth - 2 * BORDER_INSET;
+            _accentBar.getLayoutParams().height = _accentHeight;
+            _accentBar.setBackgroundColor(_digitAccentColor);
+            _accentBar.requestLayout();
+            moveAccentBar(false);
+        }
+
+        if (resized)
+        {
+            _scrollPending = true;
+            scheduleUpdate();
+        }
+    }
+
+    @TargetApi(21)
+    private void restyleDigitView(DigitView digitView, PinStyle old, boolean resized, boolean recoloured, boolean textChanged)
+    {
+        if (resized)
+        {
+            LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) digitView.getLayoutParams();
+            params.setMargins(_digitSpacing / 2, 0, _digitSpacing / 2, 0);
+            digitView.requestLayout();
+        }
+
+        if (recoloured)
+        {
+            // Keeps the selected state, which belongs to the view
+            digitView.setBackground(getDrawable());
+        }
+
+        if (textChanged)
+        {
+            digitView.invalidate();
+        }
+
+        if (_digitElevation != old.getDigitElevation() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+        {
+            digitView.setElevation(_digitElevation);
+        }
+    }
+
+    public void setDigitColors(int backgroundColor, int borderColor, int accentColor, int textColor)
+    {
+        setStyle(new PinStyle.Builder(_style)
+                .setDigitBackgroundColor(backgroundColor)
+                .setDigitBorderColor(borderColor)
+                .setDigitAccentColor(accentColor)
+                .setDigitTextColor(textColor)
+                .build());
+    }
+
+    /**
+     * Sizes are in pixels.
+     */
+    public void setDigitSize(int width, int height)
+    {
+        setStyle(new PinStyle.Builder(_style).setDigitWidth(width).setDigitHeight(height).build());
+    }
+
+    public void setDigitSpacing(int spacing)
+    {
+        setStyle(new PinStyle.Builder(_style).setDigitSpacing(spacing).build());
+    }
+
+    public void setDigitTextSize(int textSize)
+    {
+        setStyle(new PinStyle.Builder(_style).setDigitTextSize(textSize).build());
+    }
+
+    public void setAccentHeight(int accentHeight)
+    {
+        setStyle(new PinStyle.Builder(_style).setAccentHeight(accentHeight).build());
+    }
+
+    /**
+     * Shakes the digits from side to side, e.g. after a wrong pin. Does nothing unless the shake
+     * animation is on.
+     */
+    public void shake()
+    {
+        if ((_animations & ANIMATE_SHAKE) == 0 || _shakeStep >= 0)
+        {
+            return;
+        }
+        _shakeOrigin = getTranslationX();
+        _shakeStepRunnable.run();
+    }
+
+    /**
+     * Shows each newly entered digit for the given time before masking it. 0, the default, masks
+     * digits straight away.
+     */
+    public void setRevealDuration(int millis)
+    {
+        _revealDuration = millis;
+        if (millis <= 0 && _revealedIndex >= 0)
+        {
+            _revealedIndex = -1;
+            scheduleUpdate();
+        }
+    }
+
+    public int getRevealDuration()
+    {
+        return _revealDuration;
+    }
+
+    /**
+     * Sets a verifier to start checking candidate pins as soon as all but the last digit are
+     * entered. Confirm the finished pin with {@link SpeculativePinVerifier#confirm(char[])}.
+     */
+    public void setSpeculativeVerifier(SpeculativePinVerifier verifier)
+    {
+        if (_speculativeVerifier != null)
+        {
+            _speculativeVerifier.cancel();
+        }
+        _speculativeVerifier = verifier;
+    }
+
+    void setPinVerifier(PinVerifier verifier)
+    {
+        if (_pinVerifier != null && _pinVerifier != verifier)
+        {
+            _pinVerifier.cancel();
+        }
+        _pinVerifier = verifier;
+    }
+
+    /**
+     * While locked, the pin can't be changed from the keyboard or any of the setters.
+     */
+    void setInputLocked(boolean locked)
+    {
+        _inputLocked = locked;
+    }
+
+    private InputFilter[] getInputFilters()
+    {
+        InputFilter lockFilter = new InputFilter()
+        {
+            @Override
+            public CharSequence filter(CharSequence source, int start, int end, Spanned dest, int dstart, int dend)
+            {
+                // Keep what was there
+                return _inputLocked ? dest.subSequence(dstart, dend) : null;
+            }
+        };
+        return new InputFilter[] {lockFilter, new InputFilter.LengthFilter(_numDigits)};
+    }
+
+    /**
+     * Sets a tracer to time each edit until it's drawn, and each tap until the keyboard is up.
+     * Pass null to stop tracing.
+     */
+    public void setLatencyTracer(PinLatencyTracer tracer)
+    {
+        boolean listening = _attached && _latencyTracer != null;
+        _latencyTracer = tracer;
+
+        if (_attached && listening != (tracer != null))
+        {
+            if (tracer != null)
+            {
+                getViewTreeObserver().addOnDrawListener(_drawListener);
+            }
+            else
+            {
+                getViewTreeObserver().removeOnDrawListener(_drawListener);
+            }
+        }
+    }
+
+    /**
+     * Shows the given pin and reports to the given listener, for a view taken from a
+     * {@link PinViewPool}. The listener isn't called for the pin passed in here.
+     */
+    public void bind(CharSequence pin, OnPinFinishedListener listener)
+    {
+        _pinFinishedListener = null;
+        setPin(pin);
+        _pinFinishedListener = listener;
+    }
+
+    /**
+     * Clears the pin, listener, focus and scroll position so the view can be reused.
+     */
+    public void reset()
+    {
+        _pinFinishedListener = null;
+        if (_pinVerifier != null)
+        {
+            _pinVerifier.cancel();
+        }
+        clear();
+
+        if (_pinInputField != null)
+        {
+            _pinInputField.clearFocus();
+        }
+        _pendingSelection = -1;
+        _scrollPending = false;
+        scrollTo(0, 0);
+    }
+
+    public void setOnPinFinishedListener(OnPinFinishedListener listener)
+    {
+        _pinFinishedListener = listener;
+    }
+
+    private void setPinListener(final String methodName) throws IllegalStateException
+    {
+        if (methodName == null || methodName.isEmpty())
+        {
+            return;
+        }
+
+        final Object target = getContext();
+        final List<PinFinishedBinder<Object>> binders = getBinders(target.getClass());
+        if (!binders.isEmpty())
+        {
+            // Handlers generated from @OnPinFinished are called directly
+            setOnPinFinishedListener(new OnPinFinishedListener()
+            {
+                @Override
+                public void pinEntered(String pin)
                 {
-                    digit.setText("");
+                    for (PinFinishedBinder<Object> binder : binders)
+                    {
+                        if (binder.pinEntered(target, methodName, pin))
+                        {
+                            return;
+                        }
+                    }
+                    throw new IllegalStateException("No @OnPinFinished handler named " + methodName
+                            + " in " + target.getClass().getName());
                 }
+            });
+            return;
+        }
 
-                if (_pinInputField.hasFocus() || _pinInputField.hasWindowFocus())
+        // No generated binders, look the method up by name
+        setOnPinFinishedListener(new OnPinFinishedListener()
+        {
+            private Method handler = null;
+            @Override
+            public void pinEntered(String pin)
+            {
+                if (handler == null)
                 {
-                    if (i == length)
+                    try
                     {
-                        digit.setSelected(true);
-                        _pinView.centerSelectedDigit();
+                        handler = getContext().getClass().getMethod(methodName, String.class);
                     }
-                    else
+                    catch (NoSuchMethodException e)
                     {
-                        digit.setSelected(false);
+                        throw new IllegalStateException(e);
                     }
                 }
-            }
 
-            if (length == _numDigits)
-            {
-                // Finished
-                if (_pinFinishedListener != null)
+                try
+                {
+                    handler.invoke(getContext(), pin);
+                }
+                catch (IllegalAccessException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+                catch (InvocationTargetException e)
                 {
-                    _pinFinishedListener.pinEntered(string.toString());
+                    throw new IllegalStateException(e);
                 }
             }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<PinFinishedBinder<Object>> getBinders(Class<?> type)
+    {
+        List<PinFinishedBinder<Object>> binders = new ArrayList<PinFinishedBinder<Object>>();
+
+        for (Class<?> current = type; current != null; current = current.getSuperclass())
+        {
+            PinFinishedBinder<?> binder = getBinder(current);
+            if (binder != null)
+            {
+                binders.add((PinFinishedBinder<Object>) binder);
+            }
         }
+        return binders;
+    }
+
+    private static PinFinishedBinder<?> getBinder(Class<?> type)
+    {
+        synchronized (_binders)
+        {
+            if (_binders.containsKey(type))
+            {
+                return _binders.get(type);
+            }
+        }
+
+        PinFinishedBinder<?> binder = null;
+        String name = type.getName();
+        if (!name.startsWith("android.") && !name.startsWith("java."))
+        {
+            try
+            {
+                // Generated next to the class, in whichever module declares it
+                binder = (PinFinishedBinder<?>) Class.forName(name + BINDER_SUFFIX, true, type.getClassLoader()).newInstance();
+            }
+            catch (ClassNotFoundException e)
+            {
+                // No @OnPinFinished handlers in this class
+            }
+            catch (InstantiationException e)
+            {
+                throw new IllegalStateException(e);
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        synchronized (_binders)
+        {
+            _binders.put(type, binder);
+        }
+        return binder;
+    }
+
+    private void centerSelectedDigit()
+    {
+        if (_selectedIndex >= 0)
+        {
+            // Center the digit within this view rather than the screen
+            int center = getDigitX(_selectedIndex) + _digitWidth / 2;
+            _pinView.smoothScrollTo(center - getWidth() / 2, 0);
+        }
+    }
+
+    private void scheduleUpdate()
+    {
+        // However many edits arrive in a frame, the digits are updated and scrolled once. Until the
+        // view is attached there may be no Choreographer on this thread, so wait for onAttachedToWindow.
+        if (!_frameScheduled && _attached)
+        {
+            _frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(_frameCallback);
+        }
+    }
+
+    private void applyPendingUpdates()
+    {
+        int previousReveal = _shownRevealedIndex;
+        _shownRevealedIndex = _revealedIndex;
+
+        // Only the digits between the shown and entered length change
+        int start = Math.min(_filledLength, _length);
+        int end = Math.max(_filledLength, _length);
+        for (int i = start; i < end; i++)
+        {
+            setDigitFilled(i, i < _length);
+        }
+        _filledLength = _length;
+
+        if (previousReveal != _shownRevealedIndex)
+        {
+            refreshGlyph(previousReveal);
+            refreshGlyph(_shownRevealedIndex);
+        }
+
+        if (_pendingSelection != _selectedIndex)
+        {
+            if (_selectedIndex >= 0)
+            {
+                setDigitSelected(_selectedIndex, false);
+            }
+
+            _selectedIndex = _pendingSelection;
+
+            if (_selectedIndex >= 0)
+            {
+                setDigitSelected(_selectedIndex, true);
+                _scrollPending = true;
+            }
+
+            if (_accentBar != null)
+            {
+                moveAccentBar(true);
+            }
+        }
+
+        if (_scrollPending)
+        {
+            _scrollPending = false;
+            centerSelectedDigit();
+        }
+    }
+
+    private DigitView getDigitView(int index)
+    {
+        return (DigitView) _layout.getChildAt(index);
     }
-}
 
+    private int getDigitLeft(int index)
+    {
+        // Position of a digit box within the canvas mode strip
+        return index * (_digitWidth + _digitSpacing) + _digitSpacing / 2;
+    }
+
+    private int getDigitX(int index)
+    {
+        if (_canvasMode)
+        {
+            return (int) _digitStrip.getX() + getDigitLeft(index);
+        }
+        return (int) getDigitView(index).getX();
+    }
+
+    private void setDigitSelected(int index, boolean selected)
+    {
+        if (_canvasMode)
+        {
+            // Canvas mode reads the state from _selectedIndex when drawing
+            _digitStrip.invalidateDigit(index);
+            return;
+        }
+        DigitView digitView = getDigitView(index);
+        digitView.setSelected(selected);
+
+        if ((_animations & ANIMATE_SCALE) != 0)
+        {
+            float scale = selected ? _selectedScale : 1f;
+            digitView.animate().scaleX(scale).scaleY(scale).setDuration(_animationDuration).withLayer();
+        }
+    }
+
+    private void moveAccentBar(boolean animate)
+    {
+        View accentBar = _accentBar;
+        if (_canvasMode || _selectedIndex < 0)
+        {
+            // Canvas mode draws its own accent
+            if (animate)
+            {
+                accentBar.animate().alpha(0f).setDuration(_animationDuration).withLayer();
+            }
+            else
+            {
+                accentBar.animate().cancel();
+                accentBar.setAlpha(0f);
+            }
+            return;
+        }
+
+        DigitView digitView = getDigitView(_selectedIndex);
+        float x = digitView.getLeft() + BORDER_INSET;
+        float y = digitView.getBottom() - BORDER_INSET - _accentHeight;
+
+        if (animate && accentBar.getAlpha() > 0f)
+        {
+            accentBar.animate().translationX(x).translationY(y).alpha(1f).setDuration(_animationDuration).withLayer();
+            return;
+        }
+
+        // Nothing to slide from, so appear in place
+        accentBar.animate().cancel();
+        accentBar.setTranslationX(x);
+        accentBar.setTranslationY(y);
+        if (animate)
+        {
+            accentBar.animate().alpha(1f).setDuration(_animationDuration).withLayer();
+        }
+        else
+        {
+            accentBar.setAlpha(1f);
+        }
+    }
+
+    private void setDigitFilled(int index, boolean filled)
+    {
+        if (_canvasMode)
+        {
+            // Canvas mode reads the state from _filledLength when drawing
+            _digitStrip.invalidateDigit(index);
+            return;
+        }
+        getDigitView(index).setGlyph(filled ? getGlyph(index) : -1);
+    }
+
+    private void onReveal(int length)
+    {
+        if (_revealDuration <= 0)
+        {
+            return;
+        }
+
+        // Only a single digit typed on the end is shown; any other edit masks everything
+        if (length != _length + 1 || !_attached)
+        {
+            _revealedIndex = -1;
+            return;
+        }
+
+        _revealedIndex = length - 1;
+        _revealUntil = SystemClock.uptimeMillis() + _revealDuration;
+        if (!_revealPosted)
+        {
+            _revealPosted = true;
+            postDelayed(_hideReveal, _revealDuration);
+        }
+    }
+
+    private void refreshGlyph(int index)
+    {
+        if (index >= 0 && index < _filledLength)
+        {
+            setDigitFilled(index, true);
+        }
+    }
+
+    private int getGlyph(int index)
+    {
+        return index == _shownRevealedIndex ? PinGlyphCache.getGlyph(_digits[index]) : PinGlyphCache.MASK;
+    }
+
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
+
+        _attached = true;
+        if (_pinInputField == null)
+        {
+            createInputField();
+        }
+
+        if (_latencyTracer != null)
+        {
+            getViewTreeObserver().addOnDrawListener(_drawListener);
+        }
+
+        // Show anything that changed while detached
+        scheduleUpdate();
+    }
+
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+
+        _attached = false;
+        if (_revealPosted)
+        {
+            _revealPosted = false;
+            removeCallbacks(_hideReveal);
+        }
+        _revealedIndex = -1;
+
+        if (_shakeStep >= 0)
+        {
+            _shakeStep = -1;
+            animate().cancel();
+            setTranslationX(_shakeOrigin);
+        }
+
+        if (_latencyTracer != null)
+        {
+            getViewTreeObserver().removeOnDrawListener(_drawListener);
+        }
+
+        if (_frameScheduled)
+        {
+            _frameScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(_frameCallback);
+            applyPendingUpdates();
+        }
+    }
+
+    @Override
+    protected void onScrollChanged(int l, int t, int oldl, int oldt)
+    {
+        super.onScrollChanged(l, t, oldl, oldt);
+
+        if (_canvasMode)
+        {
+            _digitStrip.onViewportChanged();
+        }
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState()
+    {
+        Parcelable parcelable = super.onSaveInstanceState();
+        PinSavedState state = new PinSavedState(parcelable);
+        state.pin = getPin();
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state)
+    {
+        PinSavedState pinState = (PinSavedState) state;
+        super.onRestoreInstanceState(pinState.getSuperState());
+        setPin(pinState.pin);
+        _scrollPending = true;
+        scheduleUpdate();
+    }
+
+    private class PinSavedState extends BaseSavedState
+    {
+        public String pin = "";
+
+        public final Parcelable.Creator<PinSavedState> CREATOR = new Parcelable.Creator<PinSavedState>()
+        {
+            @Override
+            public PinSavedState createFromParcel(Parcel in) {
+                return new PinSavedState(in);
+            }
+
+            @Override
+            public PinSavedState[] newArray(int size) {
+                return new PinSavedState[size];
+            }
+        };
+
+        public PinSavedState(Parcel source)
+        {
+            super(source);
+            pin = source.readString();
+        }
+
+        public PinSavedState(Parcelable superState)
+        {
+            super(superState);
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags)
+        {
+            super.writeToParcel(out, flags);
+            out.writeString(pin);
+        }
+    }
+
+    private class DigitView extends View
+    {
+        // -1 when empty
+        private int _glyph = -1;
+
+        public DigitView(Context context)
+        {
+            super(context);
+        }
+
+        public void setGlyph(int glyph)
+        {
+            if (glyph != _glyph)
+            {
+                _glyph = glyph;
+                invalidate();
+            }
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+        {
+            setMeasuredDimension(resolveSize(_digitWidth, widthMeasureSpec), resolveSize(_digitHeight, heightMeasureSpec));
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas)
+        {
+            if (_glyph >= 0)
+            {
+                _glyphs.draw(canvas, _glyph, getWidth() / 2f, getHeight() / 2f);
+            }
+        }
+    }
+
+    /**
+     * Draws the digits for canvas mode. Only the digits around the visible part of the PinView are
+     * drawn, so drawing costs the same however many digits there are.
+     */
+    private class DigitStrip extends View
+    {
+        // Range of digits in the last recorded drawing, inclusive
+        private int _drawnFirst;
+        private int _drawnLast = -1;
+
+        public DigitStrip(Context context)
+        {
+            super(context);
+        }
+
+        public void invalidateDigit(int index)
+        {
+            if (index < _drawnFirst || index > _drawnLast)
+            {
+                return;
+            }
+
+            // Only redraw the box that changed
+            int left = getDigitLeft(index);
+            invalidate(left, 0, left + _digitWidth, _digitHeight);
+        }
+
+        public void onViewportChanged()
+        {
+            int slotWidth = _digitWidth + _digitSpacing;
+            int viewportLeft = _pinView.getScrollX() - (int) getX();
+
+            int first = Math.max(0, viewportLeft / slotWidth);
+            int last = Math.min(_numDigits - 1, (viewportLeft + _pinView.getWidth()) / slotWidth);
+
+            // Record a new drawing once digits outside of the last one scroll into view
+            if (first < _drawnFirst || last > _drawnLast)
+            {
+                invalidate();
+            }
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
+        {
+            int width = _numDigits * (_digitWidth + _digitSpacing);
+            setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(_digitHeight, heightMeasureSpec));
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas)
+        {
+            int slotWidth = _digitWidth + _digitSpacing;
+            int viewportLeft = _pinView.getScrollX() - (int) getX();
+            int viewportWidth = _pinView.getWidth();
+
+            // Draw a viewport's worth of digits either side, so short scrolls don't need a redraw
+            int overscan = viewportWidth / slotWidth + 1;
+            _drawnFirst = Math.max(0, viewportLeft / slotWidth - overscan);
+            _drawnLast = Math.min(_numDigits - 1, (viewportLeft + viewportWidth) / slotWidth + overscan);
+
+            for (int i = _drawnFirst; i <= _drawnLast; i++)
+            {
+                drawDigit(canvas, i);
+            }
+        }
+
+        private void drawDigit(Canvas canvas, int index)
+        {
+            boolean selected = index == _selectedIndex;
+
+            int left = getDigitLeft(index);
+            int right = left + _digitWidth;
+
+            // Same layers as getDrawable(): border, accent when selected, then background
+            _digitPaint.setColor(_digitBorderColor);
+            canvas.drawRect(left, 0, right, _digitHeight, _digitPaint);
+
+            if (selected)
+            {
+                _digitPaint.setColor(_digitAccentColor);
+                canvas.drawRect(left + BORDER_INSET, BORDER_INSET, right - BORDER_INSET, _digitHeight - BORDER_INSET, _digitPaint);
+            }
+
+            int bottom = _digitHeight - BORDER_INSET - (selected ? _accentHeight : 0);
+            _digitPaint.setColor(_digitBackgroundColor);
+            canvas.drawRect(left + BORDER_INSET, BORDER_INSET, right - BORDER_INSET, bottom, _digitPaint);
+
+            if (index < _filledLength)
+            {
+                _glyphs.draw(canvas, getGlyph(index), left + _digitWidth / 2f, _digitHeight / 2f);
+            }
+        }
+    }
+
+    private void onPinChanged(int length)
+    {
+        if (_inputLocked)
+        {
+            // The lock filter kept the text as it was, but the watchers still ran
+            return;
+        }
+
+        onReveal(length);
+
+        if (length < _length)
+        {
+            Arrays.fill(_digits, length, _length, '\0');
+        }
+        _length = length;
+
+        if (_latencyTracer != null)
+        {
+            _latencyTracer.onEdit();
+        }
+
+        if (_speculativeVerifier != null)
+        {
+            _speculativeVerifier.onPinChanged(_digits, length, _numDigits);
+        }
+
+        if (_pinInputField != null && (_pinInputField.hasFocus() || _pinInputField.hasWindowFocus()))
+        {
+            _pendingSelection = length < _numDigits ? length : -1;
+        }
+        scheduleUpdate();
+
+        if (length == _numDigits)
+        {
+            // Finished
+            if (_pinVerifier != null)
+            {
+                _pinVerifier.submit(_digits, length, _speculativeVerifier);
+            }
+            if (_pinFinishedListener != null)
+            {
+                _pinFinishedListener.pinEntered(getPin());
+            }
+        }
+    }
+
+    private class PinWatcher implements TextWatcher
+    {
+        private boolean _changed;
+
+        public PinWatcher()
+        {
+            super();
+        }
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after)
+        {
+
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count)
+        {
+            if (_bulkUpdate)
+            {
+                return;
+            }
+
+            // Some edits leave the text as it was, e.g. an IME recommitting the same digits
+            _changed = s.length() != _length || !matchesDigits(s, start);
+
+            // Keep the digit buffer in step with the edit. Edits away from the end (deleting
+            // around the cursor, replacing a selection) move everything after them too.
+            TextUtils.getChars(s, start, s.length(), _digits, start);
+        }
+
+        @Override
+        public void afterTextChanged(Editable string)
+        {
+            if (!_bulkUpdate && _changed)
+            {
+                onPinChanged(string.length());
+            }
+        }
+
+        private boolean matchesDigits(CharSequence s, int start)
+        {
+            for (int i = start; i < s.length(); i++)
+            {
+                if (s.charAt(i) != _digits[i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Creates PinViews in code from an already resolved {@link PinStyle}, so no attributes or
+     * theme values need to be looked up.
+     */
+    public static class Builder
+    {
+        private final Context _context;
+        private PinStyle _style;
+        private int _numDigits = Defaults.NUM_DIGITS;
+        private int _renderMode = Defaults.RENDER_MODE;
+        private OnPinFinishedListener _pinFinishedListener;
+        private int _revealDuration;
+        private int _animations;
+        private int _animationDuration = Defaults.ANIMATION_DURATION;
+        private float _selectedScale = Defaults.SELECTED_SCALE;
+        private int _shakeDistance = -1;
+
+        public Builder(Context context)
+        {
+            _context = context;
+        }
+
+        public Builder setStyle(PinStyle style)
+        {
+            _style = style;
+            return this;
+        }
+
+        public Builder setNumDigits(int numDigits)
+        {
+            _numDigits = numDigits;
+            return this;
+        }
+
+        public Builder setRenderMode(int renderMode)
+        {
+            _renderMode = renderMode;
+            return this;
+        }
+
+        public Builder setOnPinFinishedListener(OnPinFinishedListener listener)
+        {
+            _pinFinishedListener = listener;
+            return this;
+        }
+
+        public Builder setRevealDuration(int millis)
+        {
+            _revealDuration = millis;
+            return this;
+        }
+
+        /**
+         * @param animations any of the ANIMATE_ flags
+         */
+        public Builder setAnimations(int animations)
+        {
+            _animations = animations;
+            return this;
+        }
+
+        public Builder setAnimationDuration(int millis)
+        {
+            _animationDuration = millis;
+            return this;
+        }
+
+        public Builder setSelectedScale(float selectedScale)
+        {
+            _selectedScale = selectedScale;
+            return this;
+        }
+
+        /**
+         * In pixels.
+         */
+        public Builder setShakeDistance(int shakeDistance)
+        {
+            _shakeDistance = shakeDistance;
+            return this;
+        }
+
+        public PinView build()
+        {
+            return new PinView(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.ameaney.pinhandler;
+
+import android.content.Context;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps built PinViews of one shape around so they can be reused instead of inflated again.
+ *
+ * Views can be created ahead of time with {@link #prewarm(int)}, from any thread. Take one with
+ * {@link #acquire()}, fill it in with {@link PinView#bind(CharSequence, OnPinFinishedListener)},
+ * and hand it back with {@link #release(PinView)} once it's off screen.
+ */
+public class PinViewPool
+{
+    private final Context _context;
+    private final PinStyle _style;
+    private final int _numDigits;
+    private final int _renderMode;
+    private final int _maxSize;
+
+    private final List<PinView> _views = new ArrayList<PinView>();
+
+    public PinViewPool(Context context, PinStyle style, int numDigits, int maxSize)
+    {
+        this(context, style, numDigits, PinView.Defaults.RENDER_MODE, maxSize);
+    }
+
+    public PinViewPool(Context context, PinStyle style, int numDigits, int renderMode, int maxSize)
+    {
+        _context = context;
+        _style = style;
+        _numDigits = numDigits;
+        _renderMode = renderMode;
+        _maxSize = maxSize;
+    }
+
+    /**
+     * Builds views until the pool holds {@code count} of them, or is full. Safe to call off the
+     * main thread.
+     */
+    public void prewarm(int count)
+    {
+        int target = Math.min(count, _maxSize);
+        while (size() < target)
+        {
+            // Built outside the lock so acquire() isn't held up
+            PinView view = create();
+            synchronized (this)
+            {
+                if (_views.size() >= target)
+                {
+                    return;
+                }
+                _views.add(view);
+            }
+        }
+    }
+
+    /**
+     * @return a pooled view, or a new one if the pool is empty
+     */
+    public PinView acquire()
+    {
+        synchronized (this)
+        {
+            if (!_views.isEmpty())
+            {
+                return _views.remove(_views.size() - 1);
+            }
+        }
+        return create();
+    }
+
+    /**
+     * Resets the view and keeps it for later, unless the pool is full. The view is removed from
+     * its parent first.
+     */
+    public void release(PinView view)
+    {
+        ViewParent parent = view.getParent();
+        if (parent instanceof ViewGroup)
+        {
+            ((ViewGroup) parent).removeView(view);
+        }
+        view.reset();
+
+        synchronized (this)
+        {
+            if (_views.size() < _maxSize && !_views.contains(view))
+            {
+                _views.add(view);
+            }
+        }
+    }
+
+    public synchronized int size()
+    {
+        return _views.size();
+    }
+
+    public synchronized void clear()
+    {
+        _views.clear();
+    }
+
+    private PinView create()
+    {
+        return new PinView.Builder(_context)
+                .setStyle(_style)
+                .setNumDigits(_numDigits)
+                .setRenderMode(_renderMode)
+                .build();
+    }
+}
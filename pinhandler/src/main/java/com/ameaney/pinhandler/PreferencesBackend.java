@@ -0,0 +1,75 @@
+package com.ameaney.pinhandler;
+
+import android.content.SharedPreferences;
+
+import java.util.Map;
+
+/**
+ * Keeps values in SharedPreferences, committing each batch in a single edit.
+ */
+public class PreferencesBackend implements PinStorageBackend, SharedPreferences.OnSharedPreferenceChangeListener
+{
+    private final SharedPreferences _preferences;
+    private Listener[] _listeners = new Listener[0];
+    private boolean _registered;
+
+    public PreferencesBackend(SharedPreferences preferences)
+    {
+        _preferences = preferences;
+    }
+
+    @Override
+    public String get(String key)
+    {
+        return _preferences.getString(key, null);
+    }
+
+    @Override
+    public boolean write(Map<String, String> changes)
+    {
+        SharedPreferences.Editor editor = _preferences.edit();
+        for (Map.Entry<String, String> change : changes.entrySet())
+        {
+            if (change.getValue() == null)
+            {
+                editor.remove(change.getKey());
+            }
+            else
+            {
+                editor.putString(change.getKey(), change.getValue());
+            }
+        }
+        return editor.commit();
+    }
+
+    @Override
+    public synchronized void addListener(Listener listener)
+    {
+        Listener[] listeners = new Listener[_listeners.length + 1];
+        System.arraycopy(_listeners, 0, listeners, 0, _listeners.length);
+        listeners[_listeners.length] = listener;
+        _listeners = listeners;
+
+        if (!_registered)
+        {
+            // SharedPreferences only holds listeners weakly; this backend keeps itself reachable
+            _preferences.registerOnSharedPreferenceChangeListener(this);
+            _registered = true;
+        }
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences preferences, String key)
+    {
+        Listener[] listeners;
+        synchronized (this)
+        {
+            listeners = _listeners;
+        }
+
+        for (Listener listener : listeners)
+        {
+            listener.onChanged(key);
+        }
+    }
+}
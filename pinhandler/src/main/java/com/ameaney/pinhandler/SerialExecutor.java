@@ -0,0 +1,62 @@
+package com.ameaney.pinhandler;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks one at a time, in submission order, on top of another executor.
+ */
+class SerialExecutor implements Executor
+{
+    private Executor _executor;
+    private final ArrayDeque<Runnable> _tasks = new ArrayDeque<Runnable>();
+    private Runnable _active;
+
+    public SerialExecutor(Executor executor)
+    {
+        _executor = executor;
+    }
+
+    /**
+     * Runs the queued tasks, and any submitted later, on another executor. The task already
+     * running finishes where it is.
+     */
+    public synchronized void setExecutor(Executor executor)
+    {
+        _executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task)
+    {
+        _tasks.offer(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    scheduleNext();
+                }
+            }
+        });
+
+        if (_active == null)
+        {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext()
+    {
+        _active = _tasks.poll();
+        if (_active != null)
+        {
+            _executor.execute(_active);
+        }
+    }
+}
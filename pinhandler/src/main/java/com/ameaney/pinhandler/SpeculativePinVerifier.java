@@ -0,0 +1,257 @@
+package com.ameaney.pinhandler;
+
+import android.content.Context;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks a pin against a {@link PinStorage} while its last digit is still being typed.
+ *
+ * Once all but one digit have been entered, the pin is hashed with each of the ten possible last
+ * digits in the background, so confirming the full pin is usually a lookup rather than a whole
+ * hash. Any other change to the entered digits cancels the work and wipes the candidates.
+ *
+ * Hook it up with {@link PinView#setSpeculativeVerifier(SpeculativePinVerifier)}, or call
+ * {@link #onPinChanged(char[], int, int)} yourself.
+ */
+public class SpeculativePinVerifier
+{
+    private static final int CANDIDATES = 10;
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    private static Executor _defaultExecutor;
+
+    private final PinStorage _storage;
+    private final Context _context;
+    private final Executor _executor;
+
+    // The digits being extended, null when nothing is speculated on
+    private char[] _prefix;
+    private final Candidate[] _candidates = new Candidate[CANDIDATES];
+
+    public SpeculativePinVerifier(PinStorage storage, Context context)
+    {
+        this(storage, context, getDefaultExecutor());
+    }
+
+    /**
+     * @param executor runs the candidate hashes; up to ten of them can usefully run at once. Keep
+     *                 it apart from the storage's executor, or candidates wait behind its reads.
+     */
+    public SpeculativePinVerifier(PinStorage storage, Context context, Executor executor)
+    {
+        _storage = storage;
+        _context = PinStorage.getApplicationContext(context);
+        _executor = executor;
+    }
+
+    /**
+     * Call whenever the entered pin changes. Starts hashing candidates when {@code length} is one
+     * short of {@code numDigits}, and cancels them when the digits move away from that.
+     */
+    public synchronized void onPinChanged(char[] digits, int length, int numDigits)
+    {
+        if (length == numDigits)
+        {
+            // Keep the results for confirm()
+            return;
+        }
+
+        if (length != numDigits - 1 || length == 0)
+        {
+            cancel();
+            return;
+        }
+
+        if (_prefix != null && _prefix.length == length && startsWith(digits, _prefix))
+        {
+            return;
+        }
+
+        cancel();
+
+        _prefix = Arrays.copyOf(digits, length);
+        for (int i = 0; i < CANDIDATES; i++)
+        {
+            char[] pin = Arrays.copyOf(digits, length + 1);
+            pin[length] = (char) ('0' + i);
+
+            Candidate candidate = new Candidate(pin);
+            _candidates[i] = candidate;
+            _executor.execute(candidate._task);
+        }
+    }
+
+    /**
+     * Checks the pin, using the speculated result when there is one. Blocks until the matching
+     * candidate is done, or for a full {@link PinStorage#confirmPin(Context, char[])} otherwise.
+     * The array isn't modified.
+     */
+    public boolean confirm(char[] pin)
+    {
+        Candidate candidate = null;
+        synchronized (this)
+        {
+            int last = pin.length - 1;
+            int digit = last >= 0 ? pin[last] - '0' : -1;
+            if (_prefix != null && _prefix.length == last && digit >= 0 && digit < CANDIDATES
+                    && startsWith(pin, _prefix))
+            {
+                candidate = _candidates[digit];
+                _candidates[digit] = null;
+            }
+            cancel();
+        }
+
+        if (candidate != null)
+        {
+            try
+            {
+                // Hash it here if it hasn't started. Waiting for it instead could deadlock when
+                // this thread is the one that would run it, e.g. a shared single-thread executor.
+                candidate._task.run();
+                boolean result = candidate._task.get();
+
+                // Only trust the result if the stored pin hasn't changed since
+                PinRecord record = candidate._record;
+                if (record != null && record == _storage.getRecord(_context))
+                {
+                    if (result)
+                    {
+                        _storage.onConfirmed(_context, record, pin);
+                    }
+                    return result;
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch (ExecutionException e)
+            {
+                // Fall back to checking it here
+            }
+        }
+
+        return _storage.confirmPin(_context, pin);
+    }
+
+    /**
+     * Same as {@link #confirm(char[])}, run on the storage's executor with the result delivered on
+     * the main thread.
+     */
+    public void confirmAsync(char[] pin, final OnPinResultListener listener)
+    {
+        final char[] copy = pin.clone();
+        _storage.read(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    PinStorage.deliver(listener, confirm(copy));
+                }
+                finally
+                {
+                    Arrays.fill(copy, '\0');
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops any candidates that haven't run yet and wipes them all.
+     */
+    public synchronized void cancel()
+    {
+        if (_prefix != null)
+        {
+            Arrays.fill(_prefix, '\0');
+            _prefix = null;
+        }
+
+        for (int i = 0; i < CANDIDATES; i++)
+        {
+            Candidate candidate = _candidates[i];
+            if (candidate != null)
+            {
+                // A candidate that's already hashing finishes, but nothing reads its result
+                candidate._task.cancel(false);
+                Arrays.fill(candidate._pin, '\0');
+                _candidates[i] = null;
+            }
+        }
+    }
+
+    private static boolean startsWith(char[] digits, char[] prefix)
+    {
+        for (int i = 0; i < prefix.length; i++)
+        {
+            if (digits[i] != prefix[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static synchronized Executor getDefaultExecutor()
+    {
+        if (_defaultExecutor == null)
+        {
+            int threads = Math.max(1, Math.min(CANDIDATES, Runtime.getRuntime().availableProcessors()));
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable runnable)
+                        {
+                            Thread thread = new Thread(runnable, "PinSpeculation");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            _defaultExecutor = executor;
+        }
+        return _defaultExecutor;
+    }
+
+    private class Candidate implements Callable<Boolean>
+    {
+        private final char[] _pin;
+        private final FutureTask<Boolean> _task = new FutureTask<Boolean>(this);
+
+        // The record the pin was checked against
+        private volatile PinRecord _record;
+
+        Candidate(char[] pin)
+        {
+            _pin = pin;
+        }
+
+        @Override
+        public Boolean call()
+        {
+            try
+            {
+                PinRecord current = _storage.getRecord(_context);
+                _record = current;
+                return current != null && _storage.verify(current, _pin);
+            }
+            finally
+            {
+                Arrays.fill(_pin, '\0');
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.ameaney.pinhandler;
+
+/**
+ * Tells taps apart from drags using primitive coordinates only, so feeding it move events never
+ * allocates. Distances are compared squared against the touch slop.
+ */
+public class TapDetector
+{
+    private final float _touchSlopSquare;
+
+    private float _downX;
+    private float _downY;
+    private boolean _isTap;
+
+    public TapDetector(int touchSlop)
+    {
+        _touchSlopSquare = (float) touchSlop * touchSlop;
+    }
+
+    public void onDown(float x, float y)
+    {
+        _downX = x;
+        _downY = y;
+        _isTap = true;
+    }
+
+    /**
+     * @return true while the pointer has stayed within the touch slop since the down event
+     */
+    public boolean onMove(float x, float y)
+    {
+        if (_isTap && !isWithinSlop(x, y))
+        {
+            _isTap = false;
+        }
+        return _isTap;
+    }
+
+    /**
+     * @return true if the gesture that ends here was a tap
+     */
+    public boolean onUp(float x, float y)
+    {
+        boolean tap = onMove(x, y);
+        _isTap = false;
+        return tap;
+    }
+
+    public void cancel()
+    {
+        _isTap = false;
+    }
+
+    public boolean isTap()
+    {
+        return _isTap;
+    }
+
+    private boolean isWithinSlop(float x, float y)
+    {
+        float deltaX = x - _downX;
+        float deltaY = y - _downY;
+        return deltaX * deltaX + deltaY * deltaY <= _touchSlopSquare;
+    }
+}
@@ -0,0 +1,55 @@
+package com.ameaney.pinhandler;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Marks each timed PinStorage step as a systrace section, then passes everything on to another
+ * PinMetrics. Sections are only added on API 18 and up.
+ */
+@TargetApi(18)
+public class TracePinMetrics implements PinMetrics
+{
+    private static final String[] SECTIONS = { "PinStorage.load", "PinStorage.hash", "PinStorage.compare", "PinStorage.write" };
+
+    private static final boolean TRACE_AVAILABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private final PinMetrics _delegate;
+
+    public TracePinMetrics()
+    {
+        this(NONE);
+    }
+
+    public TracePinMetrics(PinMetrics delegate)
+    {
+        _delegate = delegate;
+    }
+
+    @Override
+    public void onBegin(int timing)
+    {
+        if (TRACE_AVAILABLE)
+        {
+            Trace.beginSection(SECTIONS[timing]);
+        }
+        _delegate.onBegin(timing);
+    }
+
+    @Override
+    public void onEnd(int timing, long nanos)
+    {
+        _delegate.onEnd(timing, nanos);
+        if (TRACE_AVAILABLE)
+        {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void onCount(int counter)
+    {
+        _delegate.onCount(counter);
+    }
+}
@@ -0,0 +1,47 @@
+package com.ameaney.pinhandler;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Counts the bytes the current thread allocates while running a task, using HotSpot's
+ * per-thread allocation counter.
+ */
+class Allocations
+{
+    private static final com.sun.management.ThreadMXBean _threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Allocations()
+    {
+    }
+
+    /**
+     * Runs the task until it's warm, then returns the bytes allocated by one more run, less what
+     * reading the counter allocates by itself.
+     */
+    static long measure(Runnable task)
+    {
+        Runnable nothing = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+
+        for (int i = 0; i < 10; i++)
+        {
+            task.run();
+            allocatedBy(nothing);
+        }
+        return Math.max(0, allocatedBy(task) - allocatedBy(nothing));
+    }
+
+    private static long allocatedBy(Runnable task)
+    {
+        long threadId = Thread.currentThread().getId();
+        long before = _threads.getThreadAllocatedBytes(threadId);
+        task.run();
+        return _threads.getThreadAllocatedBytes(threadId) - before;
+    }
+}
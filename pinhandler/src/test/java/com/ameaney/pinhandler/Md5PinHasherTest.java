@@ -0,0 +1,68 @@
+package com.ameaney.pinhandler;
+
+import org.junit.Test;
+
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Md5PinHasherTest
+{
+    private static final char[] PIN = { '1', '2', '3', '4' };
+    private static final int RUNS = 10000;
+
+    private final Md5PinHasher _hasher = new Md5PinHasher();
+
+    @Test
+    public void matchesTheMd5OfTheUtf8Pin() throws Exception
+    {
+        byte[] expected = MessageDigest.getInstance("MD5").digest("1234".getBytes("UTF-8"));
+
+        assertArrayEquals(expected, _hasher.hash(PIN, null, 0));
+        assertTrue(_hasher.verify(PIN, expected));
+        assertFalse(_hasher.verify(new char[] { '1', '2', '3', '5' }, expected));
+    }
+
+    @Test
+    public void verifyDoesntAllocate()
+    {
+        final byte[] expected = _hasher.hash(PIN, null, 0);
+
+        long allocated = Allocations.measure(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < RUNS; i++)
+                {
+                    _hasher.verify(PIN, expected);
+                }
+            }
+        });
+
+        assertEquals(0, allocated);
+    }
+
+    @Test
+    public void encodeHexDoesntAllocate()
+    {
+        final char[] hex = new char[Md5PinHasher.DIGEST_LENGTH * 2];
+
+        long allocated = Allocations.measure(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < RUNS; i++)
+                {
+                    _hasher.encodeHex(PIN, hex);
+                }
+            }
+        });
+
+        assertEquals(0, allocated);
+    }
+}
@@ -0,0 +1,66 @@
+package com.ameaney.pinhandler;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TapDetectorTest
+{
+    private static final int TOUCH_SLOP = 8;
+    private static final int MOVES = 100000;
+
+    @Test
+    public void staysATapWithinTheSlop()
+    {
+        TapDetector detector = new TapDetector(TOUCH_SLOP);
+        detector.onDown(100, 100);
+
+        assertTrue(detector.onMove(105, 106));
+        assertTrue(detector.onUp(100, 92));
+        assertFalse(detector.isTap());
+    }
+
+    @Test
+    public void becomesADragOnceOutsideTheSlop()
+    {
+        TapDetector detector = new TapDetector(TOUCH_SLOP);
+        detector.onDown(100, 100);
+
+        assertFalse(detector.onMove(106, 106));
+        assertFalse(detector.onUp(100, 100));
+    }
+
+    @Test
+    public void cancelEndsTheTap()
+    {
+        TapDetector detector = new TapDetector(TOUCH_SLOP);
+        detector.onDown(100, 100);
+        detector.cancel();
+
+        assertFalse(detector.onUp(100, 100));
+    }
+
+    @Test
+    public void movesDontAllocate()
+    {
+        final TapDetector detector = new TapDetector(TOUCH_SLOP);
+
+        long allocated = Allocations.measure(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                detector.onDown(0, 0);
+                for (int i = 0; i < MOVES; i++)
+                {
+                    detector.onMove(i % TOUCH_SLOP, i % 3);
+                }
+                detector.onUp(0, 0);
+            }
+        });
+
+        assertEquals(0, allocated);
+    }
+}
@@ -8,6 +8,7 @@ import android.widget.Toast;
 
 import com.ameaney.pinhandler.OnPinFinishedListener;
 import com.ameaney.pinhandler.PinView;
+import com.ameaney.pinhandler.annotations.OnPinFinished;
 
 public class MainActivity extends AppCompatActivity
 {
@@ -28,6 +29,7 @@ public class MainActivity extends AppCompatActivity
 //        });
     }
 
+    @OnPinFinished
     public void onPinFinished(String pin)
     {
         Toast.makeText(this, "Entered " + pin, Toast.LENGTH_SHORT).show();